@@ -3,11 +3,12 @@ package com.ramotion.expandingcollection;
 import android.view.View;
 
 import androidx.viewpager.widget.ViewPager;
+import androidx.viewpager2.widget.ViewPager2;
 
 /**
- * Page Transformer for main ViewPager.
+ * Page Transformer for main ViewPager, also used by ViewPager2 of {@link ECRecyclerPager}.
  */
-public class AlphaScalePageTransformer implements ViewPager.PageTransformer {
+public class AlphaScalePageTransformer implements ViewPager.PageTransformer, ViewPager2.PageTransformer {
 
     private static final float INACTIVE_SCALE = 0.8f;
     private static final float INACTIVE_ALPHA = 0.5f;
@@ -1,14 +1,36 @@
 package com.ramotion.expandingcollection;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.util.LruCache;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * LruCache for caching background bitmaps for {@link ECBackgroundSwitcherView}.
- * Key is id of page from {@link ECPager} and value is background bitmap from provided data.
+ * Key is {@link BackgroundKey} of page background and value is processed background bitmap.
+ * All namespaces share one memory budget, but every namespace is limited by its quota, so a single pager
+ * can't evict backgrounds of the others. Namespace without explicit quota gets a fair share of the budget.
+ * Budget is configurable and cache shrinks itself on memory pressure signals from the system.
  */
-public class BackgroundBitmapCache {
-    private LruCache<String, Bitmap> mBackgroundsCache;
+public class BackgroundBitmapCache implements ComponentCallbacks2 {
+    // default budget as part of application memory class, BitmapPool budget is based on the same memory class
+    static final float DEFAULT_SIZE_FRACTION = 0.2f;
+
+    private LruCache<BackgroundKey, Bitmap> mBackgroundsCache;
+    // views subscribed to memory pressure signals, cache is registered while there is any
+    private int componentCallbacksHolders;
+    private boolean maxSizeSet;
+    // set while cache shrinks on memory pressure, memory must be freed then and not moved to pool
+    private boolean trimming;
+
+    // sizes in kilobytes, same units as cache itself
+    private final Map<String, Integer> namespaceSizes = new HashMap<>();
+    private final Map<String, Integer> namespaceQuotas = new HashMap<>();
 
     private static BackgroundBitmapCache instance;
 
@@ -21,35 +43,227 @@ public class BackgroundBitmapCache {
     }
 
     private void init() {
-        final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        final int cacheSize = maxMemory / 5;
+        final int cacheSize = (int) (memoryClassBytes(null) * DEFAULT_SIZE_FRACTION / 1024);
 
-        mBackgroundsCache = new LruCache<String, Bitmap>(cacheSize) {
+        mBackgroundsCache = new LruCache<BackgroundKey, Bitmap>(cacheSize) {
             @Override
-            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            protected void entryRemoved(boolean evicted, BackgroundKey key, Bitmap oldValue, Bitmap newValue) {
                 super.entryRemoved(evicted, key, oldValue, newValue);
+                updateNamespaceSize(key.getNamespace(), -sizeOf(key, oldValue));
+                // evicted backgrounds feed the pool, pool itself skips ones that are still retained.
+                // Evictions run under lock of this cache, so retainBitmapFromBgMemCache can't race with them
+                if (oldValue != newValue && !trimming)
+                    BitmapPool.getInstance().put(oldValue);
             }
 
             @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                // The cache size will be measured in kilobytes rather than number of items.
-                return bitmap.getByteCount() / 1024;
+            protected int sizeOf(BackgroundKey key, Bitmap bitmap) {
+                return sizeKb(bitmap);
             }
         };
     }
 
-    public void addBitmapToBgMemoryCache(Integer key, Bitmap bitmap) {
-        addBitmapToBgMemoryCache(String.valueOf(key), bitmap);
+    /**
+     * Size of cached background, the same for cache itself and namespace totals.
+     */
+    private static int sizeKb(Bitmap bitmap) {
+        // The cache size will be measured in kilobytes rather than number of items.
+        // pooled bitmaps may be reconfigured into bigger allocation, it's what really occupies memory
+        return bitmap.getAllocationByteCount() / 1024;
     }
 
-    public void addBitmapToBgMemoryCache(String key, Bitmap bitmap) {
+    public synchronized void addBitmapToBgMemoryCache(BackgroundKey key, Bitmap bitmap) {
+        if (bitmap == null) return;
         if (getBitmapFromBgMemCache(key) == null) {
+            int size = sizeKb(bitmap);
+            trimNamespace(key.getNamespace(), getNamespaceQuota(key.getNamespace()) - size);
             mBackgroundsCache.put(key, bitmap);
+            updateNamespaceSize(key.getNamespace(), size);
         }
     }
 
-    public Bitmap getBitmapFromBgMemCache(String key) {
+    public Bitmap getBitmapFromBgMemCache(BackgroundKey key) {
         return mBackgroundsCache.get(key);
     }
 
+    /**
+     * Get cached background and retain it in {@link BitmapPool} at once, so it can't be evicted into the pool
+     * and reused before caller shows it. Caller must {@link BitmapPool#release(Bitmap)} it when done.
+     */
+    public synchronized Bitmap retainBitmapFromBgMemCache(BackgroundKey key) {
+        Bitmap bitmap = mBackgroundsCache.get(key);
+        BitmapPool.getInstance().retain(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Set memory budget of cache in bytes, least recently used backgrounds are evicted if it's exceeded.
+     */
+    public synchronized void setMaxSizeBytes(long maxSizeBytes) {
+        maxSizeSet = true;
+        mBackgroundsCache.resize((int) Math.max(1, maxSizeBytes / 1024));
+    }
+
+    /**
+     * Set memory budget of cache as a fraction of application memory class.
+     *
+     * @param fraction part of memory class, e.g. 0.15f
+     */
+    public void setMaxSizeFraction(Context context, float fraction) {
+        setMaxSizeBytes((long) (memoryClassBytes(context) * fraction));
+    }
+
+    /**
+     * Memory class of application in bytes, heap limit stands for it while there is no context.
+     */
+    static long memoryClassBytes(Context context) {
+        if (context == null) return Runtime.getRuntime().maxMemory();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024L * 1024L;
+    }
+
+    public long getHitCount() {
+        return mBackgroundsCache.hitCount();
+    }
+
+    public long getMissCount() {
+        return mBackgroundsCache.missCount();
+    }
+
+    public long getPutCount() {
+        return mBackgroundsCache.putCount();
+    }
+
+    public long getEvictionCount() {
+        return mBackgroundsCache.evictionCount();
+    }
+
+    public long getMaxSizeBytes() {
+        return mBackgroundsCache.maxSize() * 1024L;
+    }
+
+    /**
+     * @return bytes currently held by cached backgrounds
+     */
+    public long getCurrentSizeBytes() {
+        return mBackgroundsCache.size() * 1024L;
+    }
+
+    /**
+     * Subscribe cache to memory pressure signals, called by background views when they're attached.
+     * Every call must be paired with {@link #unregisterComponentCallbacks(Context)}, cache stays registered
+     * while any caller holds it. Default budgets of cache and {@link BitmapPool} are taken from memory class
+     * on first registration, unless they were set explicitly.
+     */
+    public synchronized void registerComponentCallbacks(Context context) {
+        if (componentCallbacksHolders++ > 0) return;
+        Context appContext = context.getApplicationContext();
+        appContext.registerComponentCallbacks(this);
+        long memoryClassBytes = memoryClassBytes(appContext);
+        if (!maxSizeSet)
+            mBackgroundsCache.resize((int) Math.max(1, memoryClassBytes * DEFAULT_SIZE_FRACTION / 1024));
+        BitmapPool.getInstance().applyDefaultMaxSize(memoryClassBytes);
+    }
+
+    public synchronized void unregisterComponentCallbacks(Context context) {
+        if (componentCallbacksHolders == 0 || --componentCallbacksHolders > 0) return;
+        context.getApplicationContext().unregisterComponentCallbacks(this);
+    }
+
+    /**
+     * Shrink cache and bitmap pool to a part of their budget, the more critical level is the less is kept.
+     * Backgrounds evicted here are dropped instead of going to the pool, so memory is really freed.
+     * Budget itself isn't changed, so cache may grow again when pressure is gone.
+     */
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        int maxSize = mBackgroundsCache.maxSize();
+        BitmapPool pool = BitmapPool.getInstance();
+        trimming = true;
+        try {
+            if (level >= TRIM_MEMORY_MODERATE) {
+                // process is in background and is likely to be killed soon
+                mBackgroundsCache.evictAll();
+                pool.clear();
+            } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                mBackgroundsCache.trimToSize(maxSize / 2);
+                pool.clear();
+            } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+                mBackgroundsCache.trimToSize(maxSize / 4);
+                pool.clear();
+            } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                mBackgroundsCache.trimToSize(maxSize / 2);
+                pool.trimToSize(pool.getMaxSize() / 2);
+            } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+                mBackgroundsCache.trimToSize(maxSize * 3 / 4);
+                pool.trimToSize(pool.getMaxSize() * 3 / 4);
+            }
+        } finally {
+            trimming = false;
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Limit memory used by backgrounds of a namespace.
+     *
+     * @param namespace   namespace of {@link ECBackgroundSwitcherView}
+     * @param quotaBytes  max size in bytes, or 0 to use fair share of the budget
+     */
+    public synchronized void setNamespaceQuota(String namespace, long quotaBytes) {
+        if (quotaBytes <= 0) {
+            namespaceQuotas.remove(namespace);
+        } else {
+            namespaceQuotas.put(namespace, (int) (quotaBytes / 1024));
+            trimNamespace(namespace, getNamespaceQuota(namespace));
+        }
+    }
+
+    /**
+     * @return bytes held by backgrounds of the namespace
+     */
+    public synchronized long getNamespaceSize(String namespace) {
+        Integer size = namespaceSizes.get(namespace);
+        return size != null ? size * 1024L : 0;
+    }
+
+    private int getNamespaceQuota(String namespace) {
+        Integer quota = namespaceQuotas.get(namespace);
+        if (quota != null) return quota;
+        int namespacesCount = namespaceSizes.size() + (namespaceSizes.containsKey(namespace) ? 0 : 1);
+        return mBackgroundsCache.maxSize() / Math.max(1, namespacesCount);
+    }
+
+    private synchronized void updateNamespaceSize(String namespace, int delta) {
+        Integer current = namespaceSizes.get(namespace);
+        int size = (current != null ? current : 0) + delta;
+        if (size > 0)
+            namespaceSizes.put(namespace, size);
+        else
+            namespaceSizes.remove(namespace);
+    }
+
+    /**
+     * Evict least recently used entries of the namespace until it fits into provided size.
+     */
+    private void trimNamespace(String namespace, int maxSize) {
+        Integer current = namespaceSizes.get(namespace);
+        if (current == null || current <= maxSize) return;
+        // snapshot is ordered from least to most recently used
+        for (BackgroundKey key : mBackgroundsCache.snapshot().keySet()) {
+            if (!key.getNamespace().equals(namespace)) continue;
+            mBackgroundsCache.remove(key);
+            current = namespaceSizes.get(namespace);
+            if (current == null || current <= maxSize) return;
+        }
+    }
+
 }
@@ -0,0 +1,271 @@
+package com.ramotion.expandingcollection;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight loader in front of {@link BackgroundBitmapCache}. Concurrent requests for the same background
+ * share one {@link BitmapWorkerTask}, each caller gets own callback and can withdraw independently.
+ * Url backgrounds missing in cache tiers are fetched and processed by Glide asynchronously
+ * with {@link BackgroundTransformation}, so worker threads never wait for network.
+ */
+public class BackgroundBitmapLoader {
+
+    private static BackgroundBitmapLoader instance;
+
+    private final Map<BackgroundKey, Flight> inFlight = new HashMap<>();
+
+    private final AtomicLong requestsCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public static synchronized BackgroundBitmapLoader getInstance() {
+        if (instance == null) {
+            instance = new BackgroundBitmapLoader();
+        }
+        return instance;
+    }
+
+    /**
+     * Load processed background, joining already running load for the same key if there is one.
+     *
+     * @param callback notified on main thread, may be null if caller only wants to warm up the cache
+     * @return handle to withdraw this request
+     */
+    public Request load(Context context, BackgroundKey key, BlurEngine blurEngine,
+                        BitmapWorkerTask.Priority priority, Callback callback) {
+        return load(context, key, blurEngine, priority, 0, callback);
+    }
+
+    /**
+     * Same as {@link #load(Context, BackgroundKey, BlurEngine, BitmapWorkerTask.Priority, Callback)}
+     * for page at known distance from the visible one, nearer pages of the same priority are loaded first.
+     */
+    public Request load(Context context, BackgroundKey key, BlurEngine blurEngine,
+                        BitmapWorkerTask.Priority priority, int distance, Callback callback) {
+        requestsCount.incrementAndGet();
+        synchronized (inFlight) {
+            Flight flight = inFlight.get(key);
+            if (flight != null) {
+                coalescedCount.incrementAndGet();
+                if (flight.task.getPriority() == BitmapWorkerTask.Priority.PREFETCH && priority == BitmapWorkerTask.Priority.CURRENT)
+                    BackgroundStats.getInstance().onPrefetchJoined();
+                flight.task.reschedule(priority, distance);
+            } else {
+                if (priority == BitmapWorkerTask.Priority.PREFETCH)
+                    BackgroundStats.getInstance().onPrefetchIssued();
+                flight = new Flight(key);
+                flight.task = new FlightTask(context, key, blurEngine, flight);
+                inFlight.put(key, flight);
+                flight.task.execute(priority, distance);
+            }
+            Request request = new Request(flight, callback);
+            flight.requests.add(request);
+            return request;
+        }
+    }
+
+    private void complete(Flight flight, Bitmap bitmap) {
+        if (bitmap != null && flight.task.getPriority() == BitmapWorkerTask.Priority.PREFETCH)
+            BackgroundStats.getInstance().onPrefetchCompleted(flight.key);
+        List<Request> requests;
+        synchronized (inFlight) {
+            if (inFlight.get(flight.key) == flight)
+                inFlight.remove(flight.key);
+            requests = new ArrayList<>(flight.requests);
+            flight.requests.clear();
+        }
+        for (Request request : requests) {
+            request.finished = true;
+            if (request.callback != null)
+                request.callback.onBitmapLoaded(bitmap);
+        }
+    }
+
+    private void loadWithGlide(final Flight flight, Context context, BlurEngine blurEngine) {
+        final Context appContext = context.getApplicationContext();
+        final long start = System.nanoTime();
+        boolean current = flight.task.getPriority() == BitmapWorkerTask.Priority.CURRENT;
+        flight.glideContext = appContext;
+        flight.glideTarget = Glide.with(appContext).asBitmap().load(flight.key.getImageUrl())
+                .apply(BackgroundTransformation.requestOptions(flight.key, blurEngine))
+                .priority(current ? com.bumptech.glide.Priority.HIGH : com.bumptech.glide.Priority.LOW)
+                .listener(new RequestListener<Bitmap>() {
+                    @Override
+                    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Bitmap> target, boolean isFirstResource) {
+                        postComplete(flight, null);
+                        return false;
+                    }
+
+                    @Override
+                    public boolean onResourceReady(Bitmap resource, Object model, Target<Bitmap> target, DataSource dataSource, boolean isFirstResource) {
+                        BackgroundStats.getInstance().recordStage(BackgroundStats.Source.URL, BackgroundStats.Stage.TOTAL, System.nanoTime() - start);
+                        BackgroundDiskCache.getInstance(appContext).put(flight.key.getContentKey(), resource);
+                        if (flight.cancelled) {
+                            // nobody keeps it, Glide's bitmap goes back to Glide as is
+                            postComplete(flight, null);
+                            return false;
+                        }
+                        // memory cache and callers keep it after request is cleared
+                        Bitmap bitmap = BitmapWorkerTask.copyGlideResult(resource);
+                        // held until callbacks have it, released by postComplete
+                        BitmapPool.getInstance().retain(bitmap);
+                        BackgroundBitmapCache.getInstance().addBitmapToBgMemoryCache(flight.key, bitmap);
+                        postComplete(flight, bitmap);
+                        return false;
+                    }
+                }).submit();
+    }
+
+    private void postComplete(final Flight flight, final Bitmap bitmap) {
+        BitmapWorkerExecutor.getInstance().postToMainThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!flight.cancelled)
+                        complete(flight, bitmap);
+                } finally {
+                    BitmapPool.getInstance().release(bitmap);
+                    // requests can't be cleared from their own callbacks, so it's done here
+                    flight.clearGlideTarget();
+                }
+            }
+        });
+    }
+
+    private void withdraw(Request request) {
+        Flight flight = request.flight;
+        synchronized (inFlight) {
+            if (!flight.requests.remove(request) || !flight.requests.isEmpty()) return;
+            // nobody waits for this result anymore
+            if (inFlight.get(flight.key) == flight)
+                inFlight.remove(flight.key);
+        }
+        flight.cancel();
+    }
+
+    /**
+     * @return total count of load requests
+     */
+    public long getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * @return count of load requests that joined already running load instead of starting a new one
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public int getInFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Receives loaded background on main thread.
+     */
+    public interface Callback {
+        void onBitmapLoaded(Bitmap bitmap);
+    }
+
+    /**
+     * Handle of a single caller's load request.
+     */
+    public class Request {
+        private final Flight flight;
+        private final Callback callback;
+        private volatile boolean finished;
+
+        private Request(Flight flight, Callback callback) {
+            this.flight = flight;
+            this.callback = callback;
+        }
+
+        /**
+         * Withdraw this request, shared load is cancelled only when no other request waits for it.
+         */
+        public void cancel() {
+            if (finished) return;
+            finished = true;
+            withdraw(this);
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Update queue position of shared load if it wasn't started yet, priority is never lowered.
+         */
+        public void reschedule(BitmapWorkerTask.Priority priority, int distance) {
+            if (!finished)
+                flight.task.reschedule(priority, distance);
+        }
+    }
+
+    private static class Flight {
+        private final BackgroundKey key;
+        private final List<Request> requests = new ArrayList<>();
+        private BitmapWorkerTask task;
+        // set on main thread once cache tiers missed a url background
+        private FutureTarget<Bitmap> glideTarget;
+        private Context glideContext;
+        private volatile boolean cancelled;
+
+        private Flight(BackgroundKey key) {
+            this.key = key;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            task.cancel();
+            if (glideTarget != null && !glideTarget.isDone())
+                BackgroundStats.getInstance().onWorkAborted();
+            clearGlideTarget();
+        }
+
+        /**
+         * Cancel Glide request if it's running and give its resources back to Glide.
+         */
+        private void clearGlideTarget() {
+            if (glideTarget == null) return;
+            Glide.with(glideContext).clear(glideTarget);
+            glideTarget = null;
+        }
+    }
+
+    private class FlightTask extends BitmapWorkerTask {
+        private final Flight flight;
+
+        private FlightTask(Context context, BackgroundKey key, BlurEngine blurEngine, Flight flight) {
+            super(context, key, blurEngine);
+            this.flight = flight;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            Context context = getContext();
+            if (bitmap == null && getKey().getImageUrl() != null && context != null)
+                loadWithGlide(flight, context, getBlurEngine());
+            else
+                complete(flight, bitmap);
+        }
+    }
+}
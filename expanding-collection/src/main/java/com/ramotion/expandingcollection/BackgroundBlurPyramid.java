@@ -0,0 +1,95 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Levels of gradually stronger blur for one processed background. Every level is half the size of
+ * the previous one and blurred once more, so the whole pyramid costs less than a single blur of the source.
+ * Drawing blends two adjacent levels, blur strength changes smoothly without blurring anything per frame.
+ */
+public class BackgroundBlurPyramid {
+    private final Bitmap[] levels;
+    private final Rect srcRect = new Rect();
+    private final Rect dstRect = new Rect();
+
+    private BackgroundBlurPyramid(Bitmap[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Build pyramid from processed background, must be called off the main thread.
+     *
+     * @param source      processed background, it's only read
+     * @param levelsCount number of levels over the source
+     * @param radius      blur radius of every level in its own pixels
+     */
+    public static BackgroundBlurPyramid build(Bitmap source, int levelsCount, int radius, BlurEngine blurEngine) {
+        MainThreadGuard.checkNotMainThread("Blur pyramid build");
+        Bitmap[] levels = new Bitmap[Math.max(1, levelsCount)];
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Bitmap previous = source;
+        for (int i = 0; i < levels.length; i++) {
+            int width = Math.max(1, previous.getWidth() / 2);
+            int height = Math.max(1, previous.getHeight() / 2);
+            Bitmap level = BitmapPool.getInstance().getDirty(width, height, Bitmap.Config.ARGB_8888);
+            if (level == null)
+                level = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            new Canvas(level).drawBitmap(previous, null, new Rect(0, 0, width, height), paint);
+            levels[i] = blurEngine.blur(level, radius);
+            if (levels[i] != level)
+                BitmapPool.getInstance().put(level);
+            previous = levels[i];
+        }
+        return new BackgroundBlurPyramid(levels);
+    }
+
+    public int getLevelsCount() {
+        return levels.length;
+    }
+
+    /**
+     * Draw blur of given strength center-cropped over bounds. Strength 0 is the source itself and nothing is drawn,
+     * every next integer is the next level, values in between blend the two levels around them.
+     */
+    public void draw(Canvas canvas, float strength, Paint paint, int left, int top, int right, int bottom) {
+        strength = Math.max(0f, Math.min(strength, levels.length));
+        if (strength <= 0f) return;
+        int lower = (int) strength;
+        float fraction = strength - lower;
+        int alpha = paint.getAlpha();
+        if (lower > 0)
+            drawLevel(canvas, levels[lower - 1], paint, alpha, left, top, right, bottom);
+        if (fraction > 0f && lower < levels.length)
+            drawLevel(canvas, levels[lower], paint, Math.round(alpha * fraction), left, top, right, bottom);
+        paint.setAlpha(alpha);
+    }
+
+    private void drawLevel(Canvas canvas, Bitmap level, Paint paint, int alpha, int left, int top, int right, int bottom) {
+        if (level == null || level.isRecycled() || alpha <= 0) return;
+        int width = right - left;
+        int height = bottom - top;
+        // center crop, the same as image views of background
+        float scale = Math.max((float) width / level.getWidth(), (float) height / level.getHeight());
+        int cropWidth = Math.min(level.getWidth(), Math.round(width / scale));
+        int cropHeight = Math.min(level.getHeight(), Math.round(height / scale));
+        srcRect.set((level.getWidth() - cropWidth) / 2, (level.getHeight() - cropHeight) / 2, 0, 0);
+        srcRect.right = srcRect.left + cropWidth;
+        srcRect.bottom = srcRect.top + cropHeight;
+        dstRect.set(left, top, right, bottom);
+        paint.setAlpha(alpha);
+        canvas.drawBitmap(level, srcRect, dstRect, paint);
+    }
+
+    /**
+     * Return levels to {@link BitmapPool}, pyramid can't be drawn after that.
+     */
+    public void release() {
+        for (int i = 0; i < levels.length; i++) {
+            BitmapPool.getInstance().put(levels[i]);
+            levels[i] = null;
+        }
+    }
+}
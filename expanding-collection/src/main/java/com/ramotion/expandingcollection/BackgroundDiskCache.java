@@ -0,0 +1,311 @@
+package com.ramotion.expandingcollection;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent tier under {@link BackgroundBitmapCache}. Keeps processed backgrounds as raw pixel buffers,
+ * so reloading is just a copy from memory-mapped file - no decode and no blur. Entries are evicted in LRU order
+ * recorded in journal file, every entry is written to temporary file and renamed only when complete.
+ */
+public class BackgroundDiskCache {
+    private static final String TAG = "BackgroundDiskCache";
+
+    private static final String DIRECTORY_NAME = "ec-backgrounds";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_MAGIC = "ec-backgrounds-1";
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final String ENTRY_SUFFIX = ".px";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_MAGIC = 0x45434247;
+    private static final long DEFAULT_MAX_SIZE = 20 * 1024 * 1024;
+
+    private static BackgroundDiskCache instance;
+
+    private final File directory;
+    private final String version;
+    // file name -> size in bytes, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private Writer journalWriter;
+    private int redundantOpsCount;
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long size;
+
+    public static synchronized BackgroundDiskCache getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new BackgroundDiskCache(new File(appContext.getCacheDir(), DIRECTORY_NAME), getAppVersion(appContext));
+        }
+        return instance;
+    }
+
+    /**
+     * Resource ids may change with every app update, so cache is valid only for the same installation.
+     */
+    private static String getAppVersion(Context context) {
+        try {
+            return String.valueOf(context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            return "0";
+        }
+    }
+
+    private BackgroundDiskCache(File directory, String version) {
+        this.directory = directory;
+        this.version = version;
+    }
+
+    private void ensureOpened() throws IOException {
+        if (journalWriter != null) return;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create directory " + directory);
+        if (!readJournal()) {
+            deleteContents();
+            entries.clear();
+            size = 0;
+        }
+        // drop files that aren't tracked by journal, e.g. temporary files of interrupted writes
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL_FILE) && !entries.containsKey(name))
+                    file.delete();
+            }
+        }
+        rebuildJournal();
+    }
+
+    private boolean readJournal() {
+        File journal = new File(directory, JOURNAL_FILE);
+        if (!journal.exists()) return false;
+        try (BufferedReader reader = new BufferedReader(new FileReader(journal))) {
+            if (!JOURNAL_MAGIC.equals(reader.readLine()) || !version.equals(reader.readLine()))
+                return false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && PUT.equals(parts[0])) {
+                    Long previous = entries.put(parts[1], Long.parseLong(parts[2]));
+                    size += Long.parseLong(parts[2]) - (previous != null ? previous : 0);
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    entries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    Long removed = entries.remove(parts[1]);
+                    if (removed != null) size -= removed;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // the last line may be incomplete after a crash, everything before it is still valid
+            Log.w(TAG, "Journal is truncated", e);
+        }
+        // entry could be recorded but its file lost
+        for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (!new File(directory, entry.getKey()).exists()) {
+                size -= entry.getValue();
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    private void rebuildJournal() throws IOException {
+        if (journalWriter != null) journalWriter.close();
+        File journalTmp = new File(directory, JOURNAL_FILE_TMP);
+        try (Writer writer = new BufferedWriter(new FileWriter(journalTmp))) {
+            writer.write(JOURNAL_MAGIC + "\n" + version + "\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(PUT + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        if (!journalTmp.renameTo(new File(directory, JOURNAL_FILE)))
+            throw new IOException("Can't replace journal");
+        journalWriter = new BufferedWriter(new FileWriter(new File(directory, JOURNAL_FILE), true));
+        redundantOpsCount = 0;
+    }
+
+    private void appendJournal(String line) throws IOException {
+        journalWriter.write(line + "\n");
+        journalWriter.flush();
+        redundantOpsCount++;
+        if (redundantOpsCount > 2 * entries.size() + 100)
+            rebuildJournal();
+    }
+
+    private void deleteContents() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return stored background or null if there is none
+     */
+    public synchronized Bitmap get(String key) {
+        MainThreadGuard.checkNotMainThread("Disk cache read");
+        String fileName = fileNameForKey(key);
+        try {
+            ensureOpened();
+            if (entries.get(fileName) == null) return null;
+            Bitmap bitmap = readEntry(new File(directory, fileName));
+            if (bitmap == null) {
+                removeEntry(fileName);
+                return null;
+            }
+            appendJournal(READ + " " + fileName);
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read background " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store processed background, existing entry for the same key is replaced.
+     */
+    public synchronized void put(String key, Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || bitmap.getConfig() == null) return;
+        MainThreadGuard.checkNotMainThread("Disk cache write");
+        long entrySize = HEADER_SIZE + bitmap.getByteCount();
+        if (entrySize > maxSize) return;
+        String fileName = fileNameForKey(key);
+        File tmp = new File(directory, fileName + TMP_SUFFIX);
+        try {
+            ensureOpened();
+            writeEntry(tmp, bitmap);
+            if (!tmp.renameTo(new File(directory, fileName)))
+                throw new IOException("Can't commit entry " + fileName);
+            Long previous = entries.put(fileName, entrySize);
+            size += entrySize - (previous != null ? previous : 0);
+            appendJournal(PUT + " " + fileName + " " + entrySize);
+            trimToSize(maxSize);
+        } catch (IOException e) {
+            tmp.delete();
+            Log.w(TAG, "Can't store background " + key, e);
+        }
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        try {
+            ensureOpened();
+            trimToSize(maxSize);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't trim disk cache", e);
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        try {
+            ensureOpened();
+            trimToSize(0);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't clear disk cache", e);
+        }
+    }
+
+    private void trimToSize(long targetSize) throws IOException {
+        while (size > targetSize && !entries.isEmpty()) {
+            removeEntry(entries.keySet().iterator().next());
+        }
+    }
+
+    private void removeEntry(String fileName) throws IOException {
+        Long removed = entries.remove(fileName);
+        if (removed == null) return;
+        size -= removed;
+        new File(directory, fileName).delete();
+        appendJournal(REMOVE + " " + fileName);
+    }
+
+    private static void writeEntry(File file, Bitmap bitmap) throws IOException {
+        int byteCount = bitmap.getByteCount();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + byteCount);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(ENTRY_MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(bitmap.getConfig().ordinal());
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+        }
+    }
+
+    private static Bitmap readEntry(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt() != ENTRY_MAGIC) return null;
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int configOrdinal = buffer.getInt();
+            Bitmap.Config[] configs = Bitmap.Config.values();
+            if (width <= 0 || height <= 0 || configOrdinal < 0 || configOrdinal >= configs.length) return null;
+            Bitmap.Config config = configs[configOrdinal];
+            if ((long) width * height * BitmapPool.getBytesPerPixel(config) != channel.size() - HEADER_SIZE) return null;
+
+            Bitmap bitmap = BitmapPool.getInstance().getDirty(width, height, config);
+            if (bitmap == null)
+                bitmap = Bitmap.createBitmap(width, height, config);
+            ByteBuffer pixels = buffer.slice();
+            bitmap.copyPixelsFromBuffer(pixels);
+            return bitmap;
+        }
+    }
+
+    private static String fileNameForKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.append(ENTRY_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
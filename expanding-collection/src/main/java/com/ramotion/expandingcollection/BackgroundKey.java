@@ -0,0 +1,125 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.DrawableRes;
+
+/**
+ * Immutable key of processed background: source image, processing parameters and cache namespace.
+ * Backgrounds of the same source processed with different parameters never share cache entries.
+ */
+public final class BackgroundKey {
+    public static final String DEFAULT_NAMESPACE = "default";
+
+    private final String namespace;
+    private final Integer resId;
+    private final String imageUrl;
+    private final int downScale;
+    private final int blurRadius;
+    private final String blurEngineName;
+    private final Bitmap.Config config;
+    private final int hash;
+
+    public BackgroundKey(String namespace, @DrawableRes Integer resId, String imageUrl, int downScale, int blurRadius, BlurEngine blurEngine) {
+        this(namespace, resId, imageUrl, downScale, blurRadius, blurEngine, Bitmap.Config.ARGB_8888);
+    }
+
+    public BackgroundKey(String namespace, @DrawableRes Integer resId, String imageUrl, int downScale, int blurRadius, BlurEngine blurEngine,
+                         Bitmap.Config config) {
+        this.namespace = namespace != null ? namespace : DEFAULT_NAMESPACE;
+        // url has priority over resource, same as everywhere in the library
+        this.resId = imageUrl != null ? null : resId;
+        this.imageUrl = imageUrl;
+        this.downScale = downScale;
+        this.blurRadius = blurRadius;
+        this.blurEngineName = blurEngine.getClass().getName();
+        this.config = config != null ? config : Bitmap.Config.ARGB_8888;
+
+        int result = this.namespace.hashCode();
+        result = 31 * result + (this.resId != null ? this.resId.hashCode() : 0);
+        result = 31 * result + (imageUrl != null ? imageUrl.hashCode() : 0);
+        result = 31 * result + downScale;
+        result = 31 * result + blurRadius;
+        result = 31 * result + blurEngineName.hashCode();
+        result = 31 * result + this.config.hashCode();
+        this.hash = result;
+    }
+
+    public static BackgroundKey forCard(String namespace, ECCardData cardData, int downScale, int blurRadius, BlurEngine blurEngine) {
+        return forCard(namespace, cardData, downScale, blurRadius, blurEngine, Bitmap.Config.ARGB_8888);
+    }
+
+    public static BackgroundKey forCard(String namespace, ECCardData cardData, int downScale, int blurRadius, BlurEngine blurEngine,
+                                        Bitmap.Config config) {
+        return new BackgroundKey(namespace, cardData.getMainBackgroundResource(), cardData.getBackgroundUrl(), downScale, blurRadius, blurEngine, config);
+    }
+
+    public boolean hasSource() {
+        return resId != null || imageUrl != null;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public Integer getResId() {
+        return resId;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public int getDownScale() {
+        return downScale;
+    }
+
+    public int getBlurRadius() {
+        return blurRadius;
+    }
+
+    /**
+     * @return class name of blur engine that processes this background
+     */
+    public String getBlurEngineName() {
+        return blurEngineName;
+    }
+
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Key of processed content regardless of namespace, used by persistent {@link BackgroundDiskCache}.
+     */
+    public String getContentKey() {
+        String contentKey = (imageUrl != null ? imageUrl : "res:" + resId) + "#" + downScale + "#" + blurRadius + "#" + blurEngineName;
+        // default config keeps short form, any other config gets own suffix so they never share an entry
+        return config == Bitmap.Config.ARGB_8888 ? contentKey : contentKey + "#" + config.name();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BackgroundKey)) return false;
+        BackgroundKey that = (BackgroundKey) o;
+        return hash == that.hash
+                && downScale == that.downScale
+                && blurRadius == that.blurRadius
+                && namespace.equals(that.namespace)
+                && (resId != null ? resId.equals(that.resId) : that.resId == null)
+                && (imageUrl != null ? imageUrl.equals(that.imageUrl) : that.imageUrl == null)
+                && blurEngineName.equals(that.blurEngineName)
+                && config == that.config;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return namespace + "/" + getContentKey();
+    }
+}
@@ -0,0 +1,284 @@
+package com.ramotion.expandingcollection;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps backgrounds of pages around the visible one loading through {@link BackgroundBitmapLoader}.
+ * Window covers pages on both sides of the visible page and stretches in the direction of paging when user
+ * pages fast, so background is ready by the time page settles. Pages that leave the window are withdrawn.
+ */
+public class BackgroundPrefetcher {
+    // selections further apart than this don't form a continuous paging gesture
+    private static final long VELOCITY_RESET_MILLIS = 1000;
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final Host host;
+    private final Map<BackgroundKey, BackgroundBitmapLoader.Request> requests = new HashMap<>();
+    // keys of pages around the visible one with card data they were made for, so paging and cache checks
+    // don't build the same keys over and over
+    private final SparseArray<BackgroundKey> keys = new SparseArray<>();
+    private final SparseArray<ECCardData> keysData = new SparseArray<>();
+
+    private int windowSize = 1;
+    private int maxVelocityExtension = 2;
+    private long lookaheadMillis = 400;
+    private float scrollHintThreshold = 0.2f;
+
+    private BackgroundBitmapLoader.Request scrollHintRequest;
+    private int scrollHintPosition = -1;
+
+    private int lastPosition = -1;
+    private long lastSelectionTime;
+    private int direction;
+    // pages per second, signed by direction
+    private float velocity;
+
+    BackgroundPrefetcher(Host host) {
+        this.host = host;
+    }
+
+    /**
+     * @param windowSize count of pages to prefetch on each side of the visible page, 0 disables prefetch
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(0, windowSize);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param maxVelocityExtension max count of extra pages prefetched ahead when user pages fast
+     */
+    public void setMaxVelocityExtension(int maxVelocityExtension) {
+        this.maxVelocityExtension = Math.max(0, maxVelocityExtension);
+    }
+
+    public int getMaxVelocityExtension() {
+        return maxVelocityExtension;
+    }
+
+    /**
+     * @param lookaheadMillis expected time to process one background, window ahead covers pages
+     *                        user passes during this time at current paging velocity
+     */
+    public void setLookaheadMillis(long lookaheadMillis) {
+        this.lookaheadMillis = Math.max(0, lookaheadMillis);
+    }
+
+    public long getLookaheadMillis() {
+        return lookaheadMillis;
+    }
+
+    /**
+     * @param scrollHintThreshold part of page width from 0 to 1 user must drag before loading of target page starts
+     */
+    public void setScrollHintThreshold(float scrollHintThreshold) {
+        this.scrollHintThreshold = Math.max(0f, Math.min(1f, scrollHintThreshold));
+    }
+
+    public float getScrollHintThreshold() {
+        return scrollHintThreshold;
+    }
+
+    /**
+     * @return current paging velocity in pages per second, negative when paging backward
+     */
+    public float getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * Update paging velocity and direction and move window to the selected page.
+     */
+    public void onPageSelected(ECCardPager pager, int position) {
+        long now = SystemClock.uptimeMillis();
+        if (lastPosition >= 0 && position != lastPosition) {
+            long elapsed = Math.max(1, now - lastSelectionTime);
+            float instantVelocity = (position - lastPosition) * 1000f / elapsed;
+            boolean sameGesture = elapsed < VELOCITY_RESET_MILLIS && Math.signum(instantVelocity) == Math.signum(velocity);
+            velocity = sameGesture ? velocity + (instantVelocity - velocity) * VELOCITY_SMOOTHING : instantVelocity;
+            direction = position > lastPosition ? 1 : -1;
+        }
+        lastPosition = position;
+        lastSelectionTime = now;
+        // visible page request is already made, so hint isn't needed anymore
+        cancelScrollHint();
+        updateWindow(pager, position);
+    }
+
+    /**
+     * Start loading of page user drags to once drag passes threshold, withdraw it if drag goes back.
+     *
+     * @param position       position of the left one of two visible pages as reported by ViewPager
+     * @param positionOffset offset of the left page from 0 to 1
+     */
+    public void onPageScrolled(ECCardPager pager, int position, float positionOffset) {
+        if (pager.getPagerViewAdapter() == null) return;
+        int current = pager.getCurrentPosition();
+        int target;
+        float progress;
+        if (position == current && positionOffset > 0) {
+            target = current + 1;
+            progress = positionOffset;
+        } else if (position == current - 1) {
+            target = current - 1;
+            progress = 1 - positionOffset;
+        } else {
+            cancelScrollHint();
+            return;
+        }
+
+        if (target != scrollHintPosition) {
+            cancelScrollHint();
+        }
+        if (progress < scrollHintThreshold / 2) {
+            // hysteresis, so drag jittering around threshold doesn't restart work
+            cancelScrollHint();
+        } else if (progress >= scrollHintThreshold && scrollHintRequest == null && target < pager.getPagerViewAdapter().getCount()) {
+            BackgroundKey key = getKey(pager, target);
+            if (!key.hasSource() || BackgroundBitmapCache.getInstance().getBitmapFromBgMemCache(key) != null) return;
+            // distance 0 puts target ahead of every prefetch of the window
+            scrollHintPosition = target;
+            scrollHintRequest = BackgroundBitmapLoader.getInstance().load(host.getContext(), key, host.getBlurEngine(),
+                    BitmapWorkerTask.Priority.PREFETCH, 0, null);
+        }
+    }
+
+    /**
+     * Drag ended without page change.
+     */
+    public void onScrollIdle() {
+        cancelScrollHint();
+    }
+
+    private void cancelScrollHint() {
+        if (scrollHintRequest != null)
+            scrollHintRequest.cancel();
+        scrollHintRequest = null;
+        scrollHintPosition = -1;
+    }
+
+    /**
+     * Prefetch pages around position and withdraw requests of pages outside the window.
+     */
+    public void updateWindow(ECCardPager pager, int position) {
+        int count = pager.getPagerViewAdapter() != null ? pager.getPagerViewAdapter().getCount() : 0;
+        LinkedHashMap<BackgroundKey, Integer> window = new LinkedHashMap<>();
+        if (windowSize > 0 && count > 0) {
+            int forward = windowSize;
+            int backward = windowSize;
+            if (direction != 0) {
+                // fast paging in one direction, reversal is less likely the further user goes
+                int extension = (int) Math.min(maxVelocityExtension, Math.ceil(Math.abs(velocity) * lookaheadMillis / 1000f) - 1);
+                extension = Math.max(0, extension);
+                forward += extension;
+                backward = Math.max(1, windowSize - extension);
+            }
+            for (int distance = 1; distance <= Math.max(forward, backward); distance++) {
+                if (distance <= forward)
+                    addToWindow(window, pager, position + distance * (direction >= 0 ? 1 : -1), count, distance);
+                if (distance <= backward)
+                    addToWindow(window, pager, position - distance * (direction >= 0 ? 1 : -1), count, distance);
+            }
+            dropKeysOutside(position - Math.max(forward, backward) - 1, position + Math.max(forward, backward) + 1);
+        } else {
+            dropKeysOutside(position - 1, position + 1);
+        }
+
+        for (Iterator<Map.Entry<BackgroundKey, BackgroundBitmapLoader.Request>> it = requests.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<BackgroundKey, BackgroundBitmapLoader.Request> entry = it.next();
+            if (entry.getValue().isFinished()) {
+                it.remove();
+            } else if (!window.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+
+        BackgroundBitmapLoader loader = BackgroundBitmapLoader.getInstance();
+        for (Map.Entry<BackgroundKey, Integer> entry : window.entrySet()) {
+            BackgroundBitmapLoader.Request request = requests.get(entry.getKey());
+            if (request != null) {
+                request.reschedule(BitmapWorkerTask.Priority.PREFETCH, entry.getValue());
+            } else {
+                requests.put(entry.getKey(), loader.load(host.getContext(), entry.getKey(), host.getBlurEngine(),
+                        BitmapWorkerTask.Priority.PREFETCH, entry.getValue(), null));
+            }
+        }
+    }
+
+    private void addToWindow(Map<BackgroundKey, Integer> window, ECCardPager pager, int position, int count, int distance) {
+        if (position < 0 || position >= count) return;
+        BackgroundKey key = getKey(pager, position);
+        if (!key.hasSource() || window.containsKey(key)) return;
+        if (BackgroundBitmapCache.getInstance().getBitmapFromBgMemCache(key) != null) return;
+        window.put(key, distance);
+    }
+
+    /**
+     * Key of page background made by host, it's made again only if card data at position was replaced
+     * or after {@link #invalidateKeys()}.
+     */
+    public BackgroundKey getKey(ECCardPager pager, int position) {
+        ECCardData data = pager.getDataFromAdapterDataset(position);
+        BackgroundKey key = keys.get(position);
+        if (key == null || keysData.get(position) != data) {
+            key = host.getBackgroundKey(pager, position);
+            keys.put(position, key);
+            keysData.put(position, data);
+        }
+        return key;
+    }
+
+    /**
+     * Forget keys, must be called when any host setting that keys depend on changes.
+     */
+    public void invalidateKeys() {
+        keys.clear();
+        keysData.clear();
+    }
+
+    private void dropKeysOutside(int from, int to) {
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            int position = keys.keyAt(i);
+            if (position < from || position > to) {
+                keys.removeAt(i);
+                keysData.remove(position);
+            }
+        }
+    }
+
+    /**
+     * Withdraw all prefetch requests, e.g. when pager is detached.
+     */
+    public void cancelAll() {
+        cancelScrollHint();
+        List<BackgroundBitmapLoader.Request> pending = new ArrayList<>(requests.values());
+        requests.clear();
+        for (BackgroundBitmapLoader.Request request : pending) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Background view that owns prefetcher.
+     */
+    public interface Host {
+        Context getContext();
+
+        BackgroundKey getBackgroundKey(ECCardPager pager, int position);
+
+        BlurEngine getBlurEngine();
+    }
+}
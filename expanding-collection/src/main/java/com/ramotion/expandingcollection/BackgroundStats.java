@@ -0,0 +1,378 @@
+package com.ramotion.expandingcollection;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of background caching and processing pipeline. Counters are lock-free, so collection is cheap enough
+ * to stay enabled in release builds. Use {@link #getSnapshot()} to export current values.
+ */
+public class BackgroundStats {
+    // upper bounds of latency histogram buckets in milliseconds, the last bucket is unbounded
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+    // keep memory of prefetched keys bounded, stale keys are dropped all at once
+    private static final int MAX_TRACKED_PREFETCHES = 256;
+
+    private static BackgroundStats instance;
+
+    private volatile boolean enabled = true;
+
+    private final LatencyHistogram[][] histograms = new LatencyHistogram[Source.values().length][Stage.values().length];
+
+    private final AtomicLong prefetchIssuedCount = new AtomicLong();
+    private final AtomicLong prefetchCompletedCount = new AtomicLong();
+    private final AtomicLong prefetchUsedCount = new AtomicLong();
+    private final AtomicLong prefetchJoinedCount = new AtomicLong();
+    private final AtomicLong cancelledQueuedCount = new AtomicLong();
+    private final AtomicLong abortedCount = new AtomicLong();
+    private final AtomicLong lateResultsCount = new AtomicLong();
+    private final AtomicLong staleResultsDroppedCount = new AtomicLong();
+    private final Set<BackgroundKey> prefetchedKeys = Collections.newSetFromMap(new ConcurrentHashMap<BackgroundKey, Boolean>());
+
+    public static synchronized BackgroundStats getInstance() {
+        if (instance == null) {
+            instance = new BackgroundStats();
+        }
+        return instance;
+    }
+
+    private BackgroundStats() {
+        for (int source = 0; source < histograms.length; source++) {
+            for (int stage = 0; stage < histograms[source].length; stage++) {
+                histograms[source][stage] = new LatencyHistogram();
+            }
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record duration of processing stage, does nothing if source is unknown or stats are disabled.
+     */
+    void recordStage(Source source, Stage stage, long durationNanos) {
+        if (!enabled || source == null) return;
+        histograms[source.ordinal()][stage.ordinal()].record(durationNanos);
+    }
+
+    void onPrefetchIssued() {
+        if (enabled) prefetchIssuedCount.incrementAndGet();
+    }
+
+    void onPrefetchCompleted(BackgroundKey key) {
+        if (!enabled) return;
+        prefetchCompletedCount.incrementAndGet();
+        if (prefetchedKeys.size() >= MAX_TRACKED_PREFETCHES)
+            prefetchedKeys.clear();
+        prefetchedKeys.add(key);
+    }
+
+    /**
+     * Visible page request joined prefetch that was still in progress.
+     */
+    void onPrefetchJoined() {
+        if (enabled) prefetchJoinedCount.incrementAndGet();
+    }
+
+    /**
+     * Visible page background was found in memory cache.
+     */
+    void onCachedBackgroundShown(BackgroundKey key) {
+        if (enabled && prefetchedKeys.remove(key))
+            prefetchUsedCount.incrementAndGet();
+    }
+
+    /**
+     * Superseded task was removed from queue before it started.
+     */
+    void onQueuedWorkCancelled() {
+        if (enabled) cancelledQueuedCount.incrementAndGet();
+    }
+
+    /**
+     * Superseded task stopped before its expensive processing stages.
+     */
+    void onWorkAborted() {
+        if (enabled) abortedCount.incrementAndGet();
+    }
+
+    /**
+     * Task completed after cancellation, result is cached but not delivered.
+     */
+    void onLateResult() {
+        if (enabled) lateResultsCount.incrementAndGet();
+    }
+
+    /**
+     * Delivered background belongs to page user already left, so it wasn't displayed.
+     */
+    void onStaleResultDropped() {
+        if (enabled) staleResultsDroppedCount.incrementAndGet();
+    }
+
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    public void reset() {
+        for (LatencyHistogram[] bySource : histograms) {
+            for (LatencyHistogram histogram : bySource) {
+                histogram.reset();
+            }
+        }
+        prefetchIssuedCount.set(0);
+        prefetchCompletedCount.set(0);
+        prefetchUsedCount.set(0);
+        prefetchJoinedCount.set(0);
+        cancelledQueuedCount.set(0);
+        abortedCount.set(0);
+        lateResultsCount.set(0);
+        staleResultsDroppedCount.set(0);
+        prefetchedKeys.clear();
+    }
+
+    /**
+     * Origin of background image.
+     */
+    public enum Source {
+        RESOURCE, URL
+    }
+
+    /**
+     * Stage of background processing. FUSED covers resize, darken and blur done in a single pass
+     * by {@link FusedBlurEngine}, DISK_READ is a reload from {@link BackgroundDiskCache},
+     * PREBUILT_READ is a load of background processed at build time by {@link PrebuiltBackgrounds}.
+     */
+    public enum Stage {
+        DECODE, RESIZE, DARKEN, BLUR, FUSED, DISK_READ, PREBUILT_READ, TOTAL
+    }
+
+    private static class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        void record(long durationNanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && millis >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            totalNanos.addAndGet(durationNanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            totalNanos.set(0);
+        }
+    }
+
+    /**
+     * Immutable copy of latency histogram.
+     */
+    public static class Histogram {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+
+        private Histogram(LatencyHistogram histogram) {
+            counts = new long[histogram.buckets.length()];
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.buckets.get(i);
+                sum += counts[i];
+            }
+            count = sum;
+            totalNanos = histogram.totalNanos.get();
+        }
+
+        /**
+         * @return upper bounds of buckets in milliseconds, the last bucket has no upper bound
+         */
+        public static long[] getBucketBoundsMillis() {
+            return BUCKET_BOUNDS_MS.clone();
+        }
+
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        /**
+         * @param percentile value from 0 to 100
+         * @return upper bound of bucket containing the percentile, or -1 if it's in the unbounded bucket
+         */
+        public long getPercentileUpperBoundMillis(double percentile) {
+            if (count == 0) return 0;
+            long threshold = (long) Math.ceil(count * percentile / 100d);
+            long accumulated = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                accumulated += counts[i];
+                if (accumulated >= threshold) return BUCKET_BOUNDS_MS[i];
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Values of all counters at the moment of snapshot creation.
+     */
+    public static class Snapshot {
+        private final long cacheHitCount;
+        private final long cacheMissCount;
+        private final long cachePutCount;
+        private final long cacheEvictionCount;
+        private final long cacheSizeBytes;
+        private final long poolHitCount;
+        private final long poolMissCount;
+        private final long loadRequestsCount;
+        private final long coalescedLoadsCount;
+        private final long prefetchIssuedCount;
+        private final long prefetchCompletedCount;
+        private final long prefetchUsedCount;
+        private final long prefetchJoinedCount;
+        private final long cancelledQueuedCount;
+        private final long abortedCount;
+        private final long lateResultsCount;
+        private final long staleResultsDroppedCount;
+        private final Histogram[][] histograms;
+
+        private Snapshot(BackgroundStats stats) {
+            BackgroundBitmapCache cache = BackgroundBitmapCache.getInstance();
+            cacheHitCount = cache.getHitCount();
+            cacheMissCount = cache.getMissCount();
+            cachePutCount = cache.getPutCount();
+            cacheEvictionCount = cache.getEvictionCount();
+            cacheSizeBytes = cache.getCurrentSizeBytes();
+            BitmapPool pool = BitmapPool.getInstance();
+            poolHitCount = pool.getHitsCount();
+            poolMissCount = pool.getMissesCount();
+            BackgroundBitmapLoader loader = BackgroundBitmapLoader.getInstance();
+            loadRequestsCount = loader.getRequestsCount();
+            coalescedLoadsCount = loader.getCoalescedCount();
+            prefetchIssuedCount = stats.prefetchIssuedCount.get();
+            prefetchCompletedCount = stats.prefetchCompletedCount.get();
+            prefetchUsedCount = stats.prefetchUsedCount.get();
+            prefetchJoinedCount = stats.prefetchJoinedCount.get();
+            cancelledQueuedCount = stats.cancelledQueuedCount.get();
+            abortedCount = stats.abortedCount.get();
+            lateResultsCount = stats.lateResultsCount.get();
+            staleResultsDroppedCount = stats.staleResultsDroppedCount.get();
+            histograms = new Histogram[stats.histograms.length][];
+            for (int source = 0; source < histograms.length; source++) {
+                histograms[source] = new Histogram[stats.histograms[source].length];
+                for (int stage = 0; stage < histograms[source].length; stage++) {
+                    histograms[source][stage] = new Histogram(stats.histograms[source][stage]);
+                }
+            }
+        }
+
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        public long getCacheMissCount() {
+            return cacheMissCount;
+        }
+
+        public long getCachePutCount() {
+            return cachePutCount;
+        }
+
+        public long getCacheEvictionCount() {
+            return cacheEvictionCount;
+        }
+
+        public long getCacheSizeBytes() {
+            return cacheSizeBytes;
+        }
+
+        public long getPoolHitCount() {
+            return poolHitCount;
+        }
+
+        public long getPoolMissCount() {
+            return poolMissCount;
+        }
+
+        public long getLoadRequestsCount() {
+            return loadRequestsCount;
+        }
+
+        public long getCoalescedLoadsCount() {
+            return coalescedLoadsCount;
+        }
+
+        public long getPrefetchIssuedCount() {
+            return prefetchIssuedCount;
+        }
+
+        public long getPrefetchCompletedCount() {
+            return prefetchCompletedCount;
+        }
+
+        /**
+         * @return count of prefetched backgrounds that were shown from cache afterwards
+         */
+        public long getPrefetchUsedCount() {
+            return prefetchUsedCount;
+        }
+
+        /**
+         * @return count of visible page loads that joined prefetch still in progress
+         */
+        public long getPrefetchJoinedCount() {
+            return prefetchJoinedCount;
+        }
+
+        /**
+         * @return count of superseded tasks removed from queue before any work was done
+         */
+        public long getCancelledQueuedCount() {
+            return cancelledQueuedCount;
+        }
+
+        /**
+         * @return count of superseded tasks stopped before decode or blur
+         */
+        public long getAbortedCount() {
+            return abortedCount;
+        }
+
+        /**
+         * @return count of tasks that completed after cancellation, their results were cached but not delivered
+         */
+        public long getLateResultsCount() {
+            return lateResultsCount;
+        }
+
+        /**
+         * @return count of delivered backgrounds that weren't displayed because user already left the page
+         */
+        public long getStaleResultsDroppedCount() {
+            return staleResultsDroppedCount;
+        }
+
+        public Histogram getHistogram(Source source, Stage stage) {
+            return histograms[source.ordinal()][stage.ordinal()];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
+import com.bumptech.glide.request.RequestOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Glide transformation that darkens and blurs background on Glide's decode threads. Source is expected
+ * to be decoded at 1/downScale by {@link DownScaleDownsampleStrategy}, use {@link #requestOptions} to get both.
+ * Source bitmap is returned to Glide's pool by Glide itself once the transformation is done.
+ */
+public class BackgroundTransformation extends BitmapTransformation {
+    private static final String ID = "com.ramotion.expandingcollection.BackgroundTransformation";
+
+    private final int downScale;
+    private final int blurRadius;
+    private final BlurEngine blurEngine;
+    private final Bitmap.Config config;
+
+    public BackgroundTransformation(int downScale, int blurRadius, BlurEngine blurEngine, Bitmap.Config config) {
+        this.downScale = Math.max(1, downScale);
+        this.blurRadius = blurRadius;
+        this.blurEngine = blurEngine;
+        this.config = config != null ? config : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Options for processed background request. Source data is kept in Glide's disk cache, so network isn't hit
+     * again, while processed result is kept by {@link BackgroundBitmapCache} and {@link BackgroundDiskCache}.
+     * Result isn't put to Glide's memory cache, it's owned by the caller and must never be recycled by Glide.
+     */
+    public static RequestOptions requestOptions(BackgroundKey key, BlurEngine blurEngine) {
+        return new RequestOptions()
+                .downsample(new DownScaleDownsampleStrategy(key.getDownScale()))
+                .transform(new BackgroundTransformation(key.getDownScale(), key.getBlurRadius(), blurEngine, key.getConfig()))
+                .format(key.getConfig() == Bitmap.Config.RGB_565 ? DecodeFormat.PREFER_RGB_565 : DecodeFormat.PREFER_ARGB_8888)
+                .diskCacheStrategy(DiskCacheStrategy.DATA)
+                .skipMemoryCache(true);
+    }
+
+    @Override
+    protected Bitmap transform(@NonNull BitmapPool pool, @NonNull Bitmap toTransform, int outWidth, int outHeight) {
+        // already downscaled by decoder, source belongs to Glide and is only read
+        return BitmapWorkerTask.processBitmap(toTransform, toTransform.getWidth(), toTransform.getHeight(), blurRadius, blurEngine,
+                config, false, BackgroundStats.Source.URL);
+    }
+
+    @Override
+    public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
+        messageDigest.update((ID + "#" + downScale + "#" + blurRadius + "#" + blurEngine.getClass().getName() + "#" + config.name())
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BackgroundTransformation)) return false;
+        BackgroundTransformation that = (BackgroundTransformation) o;
+        return downScale == that.downScale
+                && blurRadius == that.blurRadius
+                && blurEngine.getClass() == that.blurEngine.getClass()
+                && config == that.config;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = ID.hashCode();
+        result = 31 * result + downScale;
+        result = 31 * result + blurRadius;
+        result = 31 * result + blurEngine.getClass().getName().hashCode();
+        result = 31 * result + config.hashCode();
+        return result;
+    }
+}
@@ -9,4 +9,15 @@ public class BitmapFactoryOptions extends BitmapFactory.Options {
     public BitmapFactoryOptions() {
         this.inScaled = false;
     }
+
+    /**
+     * Largest power of two sample size that keeps decoded image not smaller than requested size.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
 }
@@ -0,0 +1,199 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of mutable bitmaps bucketed by allocation size. Bitmaps evicted from {@link BackgroundBitmapCache}
+ * and intermediate bitmaps of {@link BitmapWorkerTask} go back here, decodes and resizes draw from it
+ * through {@link android.graphics.BitmapFactory.Options#inBitmap} and {@link Bitmap#reconfigure}.
+ * Every holder of a bitmap that may be pooled - displaying view, loader delivering result, worker reading it -
+ * takes own reference with {@link #retain(Bitmap)}, bitmap is reusable only once all of them released it.
+ */
+public class BitmapPool {
+    // don't reuse allocations that are much bigger than requested, it's a waste of pool budget
+    private static final int MAX_SIZE_MULTIPLE = 4;
+    // default budget as part of application memory class, the same memory class as of BackgroundBitmapCache
+    static final float DEFAULT_SIZE_FRACTION = 0.1f;
+
+    private static BitmapPool instance;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    // reference counts of bitmaps in use, they must never be reused. Bitmap doesn't override equals,
+    // so the map is keyed by identity, and weak keys forget bitmaps of holders that never released them
+    private final Map<Bitmap, Integer> retainCounts = new WeakHashMap<>();
+
+    private long maxSize;
+    private boolean maxSizeSet;
+    private long currentSize;
+
+    private final AtomicLong hitsCount = new AtomicLong();
+    private final AtomicLong missesCount = new AtomicLong();
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool((long) (BackgroundBitmapCache.memoryClassBytes(null) * DEFAULT_SIZE_FRACTION));
+        }
+        return instance;
+    }
+
+    private BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Return bitmap to pool. Immutable, recycled and retained bitmaps are ignored.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || retainCounts.containsKey(bitmap)) return;
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxSize) return;
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        } else if (bucket.contains(bitmap)) {
+            return;
+        }
+        bucket.push(bitmap);
+        currentSize += size;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Take bitmap of exact dimensions and config from pool, content is cleared.
+     *
+     * @return reused bitmap or null if there is no compatible one
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getDirty(width, height, config);
+        if (bitmap != null)
+            bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Same as {@link #get(int, int, Bitmap.Config)} but content isn't cleared. Use it when bitmap
+     * will be fully overwritten anyway, e.g. as {@link android.graphics.BitmapFactory.Options#inBitmap}.
+     */
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        int requiredSize = width * height * getBytesPerPixel(config);
+        if (requiredSize <= 0) return null;
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(requiredSize);
+        if (entry == null || entry.getKey() > requiredSize * MAX_SIZE_MULTIPLE) {
+            missesCount.incrementAndGet();
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().pop();
+        if (entry.getValue().isEmpty())
+            buckets.remove(entry.getKey());
+        currentSize -= entry.getKey();
+        bitmap.reconfigure(width, height, config);
+        hitsCount.incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * Take reference to bitmap, it's never handed out for reuse until every reference is released
+     * with {@link #release(Bitmap)}.
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        if (bitmap == null) return;
+        Integer count = retainCounts.get(bitmap);
+        retainCounts.put(bitmap, count != null ? count + 1 : 1);
+        ArrayDeque<Bitmap> bucket = buckets.get(bitmap.getAllocationByteCount());
+        if (bucket != null && bucket.remove(bitmap)) {
+            currentSize -= bitmap.getAllocationByteCount();
+            if (bucket.isEmpty())
+                buckets.remove(bitmap.getAllocationByteCount());
+        }
+    }
+
+    /**
+     * Drop reference taken by {@link #retain(Bitmap)}. Bitmap isn't pooled here, it's up to the owner,
+     * e.g. {@link BackgroundBitmapCache} on eviction, to put it back once it's not retained.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null) return;
+        Integer count = retainCounts.get(bitmap);
+        if (count == null) return;
+        if (count > 1)
+            retainCounts.put(bitmap, count - 1);
+        else
+            retainCounts.remove(bitmap);
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        maxSizeSet = true;
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Base default budget on memory class once it's known, budget set explicitly is kept.
+     */
+    synchronized void applyDefaultMaxSize(long memoryClassBytes) {
+        if (maxSizeSet) return;
+        maxSize = (long) (memoryClassBytes * DEFAULT_SIZE_FRACTION);
+        trimToSize(maxSize);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Drop pooled bitmaps until pool fits into provided size, budget itself isn't changed.
+     */
+    public synchronized void trimToSize(long size) {
+        // drop biggest allocations first, they free most of the budget
+        while (currentSize > size && !buckets.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.lastEntry();
+            entry.getValue().pollLast();
+            currentSize -= entry.getKey();
+            if (entry.getValue().isEmpty())
+                buckets.remove(entry.getKey());
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    public long getHitsCount() {
+        return hitsCount.get();
+    }
+
+    public long getMissesCount() {
+        return missesCount.get();
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == null) return 4;
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+                return 4;
+            default:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16)
+                    return 8;
+                // hardware bitmaps can't be reused
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.ramotion.expandingcollection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared executor for background bitmap processing by {@link BitmapWorkerTask}.
+ * Pool is sized to the device's cores and queued tasks are served by priority - visible page first, then prefetch.
+ * Work that doesn't produce a background is queued as {@link Job} and ordered by the same rules.
+ */
+public class BitmapWorkerExecutor {
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * Visible page first, then prefetch nearest to the visible page. Otherwise the latest submitted work goes first,
+     * so the page user stopped on doesn't wait behind stale work.
+     */
+    static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable first, Runnable second) {
+            int byPriority = priorityOf(first).compareTo(priorityOf(second));
+            if (byPriority != 0) return byPriority;
+            int byDistance = Integer.compare(distanceOf(first), distanceOf(second));
+            if (byDistance != 0) return byDistance;
+            return Long.compare(sequenceOf(second), sequenceOf(first));
+        }
+    };
+
+    private static BitmapWorkerExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized BitmapWorkerExecutor getInstance() {
+        if (instance == null) {
+            instance = new BitmapWorkerExecutor();
+        }
+        return instance;
+    }
+
+    private BitmapWorkerExecutor() {
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(11, ORDER), new BitmapWorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static long nextSequence() {
+        return SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * Queue task for execution. Queue is ordered by {@link #ORDER}, so tasks must be passed as is
+     * and never wrapped into another runnable.
+     */
+    void execute(BitmapWorkerTask task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Queue work that doesn't produce a background, e.g. dataset diff or blur pyramid. Work runs on a worker
+     * thread and delivers its result itself, e.g. through {@link #postToMainThread(Runnable)}.
+     *
+     * @param priority priority of work in executor queue, use {@link BitmapWorkerTask.Priority#PREFETCH}
+     *                 unless work is needed for the visible page right now
+     * @return handle for cancellation
+     */
+    public Job submit(BitmapWorkerTask.Priority priority, Runnable work) {
+        Job job = new Job(priority, work);
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * Remove task or job from queue if it wasn't picked by worker thread yet.
+     *
+     * @return true if it was removed
+     */
+    boolean remove(Runnable queued) {
+        return executor.remove(queued);
+    }
+
+    void postToMainThread(Runnable runnable) {
+        mainThreadHandler.post(runnable);
+    }
+
+    public int getPoolSize() {
+        return POOL_SIZE;
+    }
+
+    private static BitmapWorkerTask.Priority priorityOf(Runnable queued) {
+        return queued instanceof Job ? ((Job) queued).priority : ((BitmapWorkerTask) queued).getPriority();
+    }
+
+    private static int distanceOf(Runnable queued) {
+        return queued instanceof Job ? 0 : ((BitmapWorkerTask) queued).getDistance();
+    }
+
+    private static long sequenceOf(Runnable queued) {
+        return queued instanceof Job ? ((Job) queued).sequence : ((BitmapWorkerTask) queued).getSequence();
+    }
+
+    /**
+     * Handle of work queued with {@link #submit(BitmapWorkerTask.Priority, Runnable)}.
+     */
+    public static final class Job implements Runnable {
+        private final BitmapWorkerTask.Priority priority;
+        private final Runnable work;
+        private final long sequence = nextSequence();
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private Job(BitmapWorkerTask.Priority priority, Runnable work) {
+            this.priority = priority;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true))
+                work.run();
+        }
+
+        /**
+         * Cancel work that wasn't started yet, started work runs to the end and should check itself whether
+         * its result is still needed.
+         *
+         * @return true if work was cancelled and will never run
+         */
+        public boolean cancel() {
+            if (!started.compareAndSet(false, true)) return false;
+            getInstance().remove(this);
+            return true;
+        }
+    }
+
+    private static class BitmapWorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ec-bitmap-worker-" + threadNumber.getAndIncrement());
+        }
+    }
+}
@@ -12,68 +12,383 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 
 import androidx.annotation.DrawableRes;
 
-import com.bumptech.glide.Glide;
-
 import java.lang.ref.WeakReference;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import io.alterac.blurkit.BlurKit;
 
 /**
- * Worker for async processing bitmaps through cache {@link BackgroundBitmapCache}
+ * Worker for async processing bitmaps through cache {@link BackgroundBitmapCache}.
+ * Executed by {@link BitmapWorkerExecutor}, the task itself is a handle that can be used to cancel it.
+ * Url backgrounds are only looked up in cache tiers, use {@link BackgroundBitmapLoader} to fetch them.
  */
-public class BitmapWorkerTask extends AsyncTask<Integer, Void, Bitmap> {
+public class BitmapWorkerTask implements Runnable {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_FINISHED = 2;
+    private static final int STATE_CANCELLED = 3;
 
     private final WeakReference<Context> mContextReference;
     private final BackgroundBitmapCache cache;
-    private final Integer mProvidedBitmapResId;
-    private String imageUrl;
-    private int downScale;
-    private int blurRadius;
+    private final BackgroundKey key;
+    private final BlurEngine blurEngine;
+
+    private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+    private final long sequence = BitmapWorkerExecutor.nextSequence();
+    private volatile Priority priority = Priority.CURRENT;
+    private volatile int distance;
 
     public BitmapWorkerTask(Context context, @DrawableRes Integer providedBitmapResId, String imageUrl, int downScale, int blurRadius) {
+        this(context, providedBitmapResId, imageUrl, downScale, blurRadius, new BlurKitBlurEngine());
+    }
+
+    public BitmapWorkerTask(Context context, @DrawableRes Integer providedBitmapResId, String imageUrl, int downScale, int blurRadius, BlurEngine blurEngine) {
+        this(context, new BackgroundKey(BackgroundKey.DEFAULT_NAMESPACE, providedBitmapResId, imageUrl, downScale, blurRadius, blurEngine), blurEngine);
+    }
+
+    public BitmapWorkerTask(Context context, BackgroundKey key, BlurEngine blurEngine) {
         this.mContextReference = new WeakReference<>(context);
         this.cache = BackgroundBitmapCache.getInstance();
-        this.mProvidedBitmapResId = providedBitmapResId;
-        this.imageUrl = imageUrl;
-        this.downScale = downScale;
-        this.blurRadius = blurRadius;
+        this.key = key;
+        this.blurEngine = blurEngine;
+    }
+
+    /**
+     * Submit task to shared {@link BitmapWorkerExecutor}.
+     *
+     * @param priority priority of task in executor queue
+     * @return this task as handle for cancellation
+     */
+    public BitmapWorkerTask execute(Priority priority) {
+        return execute(priority, 0);
+    }
+
+    /**
+     * Submit task to shared {@link BitmapWorkerExecutor}.
+     *
+     * @param priority priority of task in executor queue
+     * @param distance distance in pages from the visible one, nearer tasks of the same priority go first
+     * @return this task as handle for cancellation
+     */
+    public BitmapWorkerTask execute(Priority priority, int distance) {
+        this.priority = priority;
+        this.distance = priority == Priority.CURRENT ? 0 : distance;
+        BitmapWorkerExecutor.getInstance().execute(this);
+        return this;
+    }
+
+    /**
+     * Cancel task. Queued task is removed from executor, running task completes but result isn't delivered.
+     *
+     * @return true if task was cancelled before completion
+     */
+    public boolean cancel() {
+        while (true) {
+            int current = state.get();
+            if (current == STATE_FINISHED || current == STATE_CANCELLED) return false;
+            if (state.compareAndSet(current, STATE_CANCELLED)) {
+                if (current == STATE_PENDING && BitmapWorkerExecutor.getInstance().remove(this))
+                    BackgroundStats.getInstance().onQueuedWorkCancelled();
+                return true;
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return state.get() == STATE_CANCELLED;
+    }
+
+    public boolean isFinished() {
+        int current = state.get();
+        return current == STATE_FINISHED || current == STATE_CANCELLED;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Update queue position of task that wasn't started yet. Priority is never lowered,
+     * distance is taken as is because visible page may move closer or further away.
+     */
+    public void reschedule(Priority priority, int distance) {
+        Priority newPriority = priority.compareTo(this.priority) < 0 ? priority : this.priority;
+        int newDistance = newPriority == Priority.CURRENT ? 0 : distance;
+        if (newPriority == this.priority && newDistance == this.distance) return;
+        BitmapWorkerExecutor executor = BitmapWorkerExecutor.getInstance();
+        // priority and distance are part of queue ordering, so task must be re-queued to change them
+        if (executor.remove(this)) {
+            this.priority = newPriority;
+            this.distance = newDistance;
+            executor.execute(this);
+        }
     }
 
     @Override
-    protected Bitmap doInBackground(Integer... params) {
-        Integer key = params[0];
-        Bitmap cachedBitmap = cache.getBitmapFromBgMemCache(String.valueOf(imageUrl != null ? imageUrl : key));
-        if (cachedBitmap == null && mContextReference.get() != null) {
-            if(imageUrl != null){
+    public final void run() {
+        if (!state.compareAndSet(STATE_PENDING, STATE_RUNNING)) return;
+        final Bitmap result = doInBackground();
+        BitmapWorkerExecutor.getInstance().postToMainThread(new Runnable() {
+            @Override
+            public void run() {
                 try {
-                    cachedBitmap = Glide.with(mContextReference.get()).asBitmap().load(imageUrl).submit().get();
-                    cache.addBitmapToBgMemoryCache(imageUrl, processBitmap(cachedBitmap, downScale, blurRadius));
-                } catch (ExecutionException | InterruptedException e) {
-                    e.printStackTrace();
+                    if (state.compareAndSet(STATE_RUNNING, STATE_FINISHED))
+                        onPostExecute(result);
+                    else if (result != null)
+                        // cached for later, but never delivered
+                        BackgroundStats.getInstance().onLateResult();
+                } finally {
+                    // receiver has retained it by now if it shows it
+                    BitmapPool.getInstance().release(result);
                 }
-            }else {
-                cachedBitmap = BitmapFactory.decodeResource(mContextReference.get().getResources(), mProvidedBitmapResId, new BitmapFactoryOptions());
-                cache.addBitmapToBgMemoryCache(String.valueOf(mProvidedBitmapResId), processBitmap(cachedBitmap, downScale, blurRadius));
+            }
+        });
+    }
+
+    /**
+     * Result is retained in {@link BitmapPool} until it's delivered, so it can't be evicted from cache
+     * into the pool and reused meanwhile. It's released after {@link #onPostExecute(Bitmap)}.
+     */
+    protected Bitmap doInBackground() {
+        Bitmap cachedBitmap = loadFromCache();
+        Context context = mContextReference.get();
+        if (cachedBitmap == null && isCancelled()) {
+            BackgroundStats.getInstance().onWorkAborted();
+            return null;
+        }
+        // url backgrounds are fetched and processed by Glide through BackgroundBitmapLoader, here they're only looked up
+        if (cachedBitmap == null && context != null && key.hasSource() && key.getImageUrl() == null) {
+            long start = System.nanoTime();
+            cachedBitmap = decodeAndProcessResource(context.getResources(), key.getResId(), key.getDownScale(), key.getBlurRadius(),
+                    blurEngine, key.getConfig(), this);
+            if (cachedBitmap != null) {
+                BackgroundStats.getInstance().recordStage(BackgroundStats.Source.RESOURCE, BackgroundStats.Stage.TOTAL, System.nanoTime() - start);
+                BitmapPool.getInstance().retain(cachedBitmap);
+                storeProcessed(context, key, cachedBitmap);
             }
         }
         return cachedBitmap;
     }
 
+    /**
+     * Look up processed background in memory, prebuilt and disk tiers, the hit is promoted to memory.
+     *
+     * @return processed background retained in {@link BitmapPool}, or null if it has to be processed
+     */
+    protected Bitmap loadFromCache() {
+        Bitmap cachedBitmap = cache.retainBitmapFromBgMemCache(key);
+        Context context = mContextReference.get();
+        if (cachedBitmap != null || context == null || !key.hasSource()) return cachedBitmap;
+        long start = System.nanoTime();
+        cachedBitmap = PrebuiltBackgrounds.load(context, key);
+        if (cachedBitmap != null) {
+            BackgroundStats.getInstance().recordStage(BackgroundStats.Source.RESOURCE, BackgroundStats.Stage.PREBUILT_READ, System.nanoTime() - start);
+            BitmapPool.getInstance().retain(cachedBitmap);
+            cache.addBitmapToBgMemoryCache(key, cachedBitmap);
+            return cachedBitmap;
+        }
+        start = System.nanoTime();
+        // processed output is fully determined by source and processing parameters
+        cachedBitmap = BackgroundDiskCache.getInstance(context).get(key.getContentKey());
+        if (cachedBitmap != null) {
+            BackgroundStats.getInstance().recordStage(key.getImageUrl() != null ? BackgroundStats.Source.URL : BackgroundStats.Source.RESOURCE,
+                    BackgroundStats.Stage.DISK_READ, System.nanoTime() - start);
+            BitmapPool.getInstance().retain(cachedBitmap);
+            cache.addBitmapToBgMemoryCache(key, cachedBitmap);
+        }
+        return cachedBitmap;
+    }
+
+    /**
+     * Put freshly processed background to disk and memory tiers. Disk goes first, bitmap can't be evicted
+     * into {@link BitmapPool} and overwritten while it's written as long as it isn't published to memory.
+     * Caller should retain bitmap if it keeps using it afterwards.
+     */
+    static void storeProcessed(Context context, BackgroundKey key, Bitmap bitmap) {
+        BackgroundDiskCache.getInstance(context).put(key.getContentKey(), bitmap);
+        BackgroundBitmapCache.getInstance().addBitmapToBgMemoryCache(key, bitmap);
+    }
+
+    public BackgroundKey getKey() {
+        return key;
+    }
+
+    /**
+     * Called on main thread with result of {@link #doInBackground()} unless task was cancelled.
+     */
+    protected void onPostExecute(Bitmap bitmap) {
+    }
+
+    protected Context getContext() {
+        return mContextReference.get();
+    }
+
+    public BlurEngine getBlurEngine() {
+        return blurEngine;
+    }
+
     public static Bitmap processBitmap(Bitmap cachedBitmap, int downScale, int blurRadius){
-        cachedBitmap = resize(cachedBitmap, cachedBitmap.getWidth() / downScale, cachedBitmap.getHeight() / downScale);
-        darkenBitMap(cachedBitmap);
-        return BlurKit.getInstance().blur(cachedBitmap, blurRadius);
+        return processBitmap(cachedBitmap, downScale, blurRadius, new BlurKitBlurEngine());
+    }
+
+    public static Bitmap processBitmap(Bitmap cachedBitmap, int downScale, int blurRadius, BlurEngine blurEngine){
+        return processBitmap(cachedBitmap, downScale, blurRadius, blurEngine, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config config of processed bitmap, e.g. {@link Bitmap.Config#RGB_565} to halve memory of blurred background
+     */
+    public static Bitmap processBitmap(Bitmap cachedBitmap, int downScale, int blurRadius, BlurEngine blurEngine, Bitmap.Config config){
+        return processBitmap(cachedBitmap, Math.max(1, cachedBitmap.getWidth() / downScale), Math.max(1, cachedBitmap.getHeight() / downScale),
+                blurRadius, blurEngine, config, false, null);
+    }
+
+    /**
+     * Decode resource at roughly 1/downScale of its size and finish the exact scale during processing,
+     * so full resolution pixels are never allocated.
+     */
+    public static Bitmap decodeAndProcessResource(Resources resources, @DrawableRes int resId, int downScale, int blurRadius, BlurEngine blurEngine) {
+        return decodeAndProcessResource(resources, resId, downScale, blurRadius, blurEngine, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config config of processed bitmap, e.g. {@link Bitmap.Config#RGB_565} to halve memory of blurred background
+     */
+    public static Bitmap decodeAndProcessResource(Resources resources, @DrawableRes int resId, int downScale, int blurRadius,
+                                                  BlurEngine blurEngine, Bitmap.Config config) {
+        return decodeAndProcessResource(resources, resId, downScale, blurRadius, blurEngine, config, null);
+    }
+
+    /**
+     * @param task task to check for cancellation between decode and processing, may be null
+     */
+    private static Bitmap decodeAndProcessResource(Resources resources, @DrawableRes int resId, int downScale, int blurRadius,
+                                                   BlurEngine blurEngine, Bitmap.Config config, BitmapWorkerTask task) {
+        MainThreadGuard.checkNotMainThread("Background decode of resource " + resId);
+        long decodeStart = System.nanoTime();
+        BitmapFactoryOptions options = new BitmapFactoryOptions();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        int targetWidth = Math.max(1, options.outWidth / downScale);
+        int targetHeight = Math.max(1, options.outHeight / downScale);
+        options.inSampleSize = BitmapFactoryOptions.calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        Bitmap source = decodeResource(resources, resId, options);
+        if (source == null) return null;
+        BackgroundStats.getInstance().recordStage(BackgroundStats.Source.RESOURCE, BackgroundStats.Stage.DECODE, System.nanoTime() - decodeStart);
+        if (task != null && task.isCancelled()) {
+            // superseded while decoding, blur is the most expensive stage and nobody needs its result
+            BitmapPool.getInstance().put(source);
+            BackgroundStats.getInstance().onWorkAborted();
+            return null;
+        }
+
+        return processBitmap(source, targetWidth, targetHeight, blurRadius, blurEngine, config, true, BackgroundStats.Source.RESOURCE);
+    }
+
+    /**
+     * Resize, darken and blur source into bitmap of target size and config.
+     *
+     * @param ownSource   source is owned by caller and may be processed in place or returned to {@link BitmapPool}
+     * @param statsSource origin of source for {@link BackgroundStats}, null to skip recording
+     */
+    static Bitmap processBitmap(Bitmap source, int targetWidth, int targetHeight, int blurRadius, BlurEngine blurEngine,
+                                Bitmap.Config config, boolean ownSource, BackgroundStats.Source statsSource) {
+        MainThreadGuard.checkNotMainThread("Background processing");
+        BackgroundStats stats = BackgroundStats.getInstance();
+        long start = System.nanoTime();
+        if (blurEngine instanceof FusedBlurEngine) {
+            Bitmap processed = ((FusedBlurEngine) blurEngine).resizeDarkenAndBlur(source, targetWidth, targetHeight, blurRadius);
+            stats.recordStage(statsSource, BackgroundStats.Stage.FUSED, System.nanoTime() - start);
+            if (ownSource)
+                BitmapPool.getInstance().put(source);
+            return convert(processed, config);
+        }
+
+        Bitmap resized = source;
+        if (!ownSource || source.getWidth() != targetWidth || source.getHeight() != targetHeight) {
+            resized = resize(source, targetWidth, targetHeight);
+            stats.recordStage(statsSource, BackgroundStats.Stage.RESIZE, System.nanoTime() - start);
+            if (ownSource)
+                BitmapPool.getInstance().put(source);
+        }
+
+        start = System.nanoTime();
+        darkenBitMap(resized);
+        stats.recordStage(statsSource, BackgroundStats.Stage.DARKEN, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        Bitmap blurred = blurEngine.blur(resized, blurRadius);
+        stats.recordStage(statsSource, BackgroundStats.Stage.BLUR, System.nanoTime() - start);
+        return convert(blurred, config);
+    }
+
+    /**
+     * Copy processed bitmap into storage config. Blur works in full precision, banding of compact config
+     * is invisible once image is blurred, and dithering hides the rest.
+     */
+    static Bitmap convert(Bitmap bitmap, Bitmap.Config config) {
+        if (bitmap == null || config == null || bitmap.getConfig() == config) return bitmap;
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap converted = pool.getDirty(bitmap.getWidth(), bitmap.getHeight(), config);
+        if (converted == null)
+            converted = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), config);
+        new Canvas(converted).drawBitmap(bitmap, 0, 0, new Paint(Paint.DITHER_FLAG));
+        pool.put(bitmap);
+        return converted;
+    }
+
+    /**
+     * Copy bitmap of Glide request into own one, needed when it's kept after request is cleared.
+     * Glide takes its bitmap back to own pool then and reuses it for other loads.
+     */
+    static Bitmap copyGlideResult(Bitmap resource) {
+        Bitmap.Config config = resource.getConfig() != null ? resource.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap copy = BitmapPool.getInstance().get(resource.getWidth(), resource.getHeight(), config);
+        if (copy == null)
+            copy = Bitmap.createBitmap(resource.getWidth(), resource.getHeight(), config);
+        new Canvas(copy).drawBitmap(resource, 0, 0, null);
+        return copy;
+    }
+
+    /**
+     * Decode resource into mutable bitmap with already measured bounds, reusing pooled bitmap if there is one.
+     */
+    private static Bitmap decodeResource(Resources resources, @DrawableRes int resId, BitmapFactoryOptions options) {
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = BitmapPool.getInstance().getDirty(sampledWidth, sampledHeight, Bitmap.Config.ARGB_8888);
+        try {
+            return BitmapFactory.decodeResource(resources, resId, options);
+        } catch (IllegalArgumentException e) {
+            // pooled bitmap turned out to be incompatible with this image
+            options.inBitmap = null;
+            return BitmapFactory.decodeResource(resources, resId, options);
+        }
     }
 
     public static Bitmap resize(Bitmap bitmap, int width, int height){
         Matrix m = new Matrix();
         m.setRectToRect(new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight()), new RectF(0, 0, width, height), Matrix.ScaleToFit.CENTER);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), m, true);
+        Bitmap resized = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+        if (resized == null)
+            return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), m, true);
+        new Canvas(resized).drawBitmap(bitmap, m, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return resized;
     }
 
     public static Bitmap darkenBitMap(Bitmap bm) {
@@ -86,4 +401,8 @@ public class BitmapWorkerTask extends AsyncTask<Integer, Void, Bitmap> {
 
         return bm;
     }
+
+    public enum Priority {
+        CURRENT, PREFETCH
+    }
 }
@@ -0,0 +1,17 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+
+/**
+ * Blur implementation used by {@link BitmapWorkerTask} to process backgrounds.
+ * Selected per {@link ECBackgroundSwitcherView} with {@link ECBackgroundSwitcherView#setBlurEngine(BlurEngine)}.
+ */
+public interface BlurEngine {
+
+    /**
+     * Blur mutable bitmap, implementations are allowed to modify it in place.
+     *
+     * @return blurred bitmap, may be the same instance as provided one
+     */
+    Bitmap blur(Bitmap bitmap, int radius);
+}
@@ -0,0 +1,203 @@
+package com.ramotion.expandingcollection;
+
+/**
+ * Encoder and decoder of BlurHash compact image placeholders. Hash is a short base83 string of a few
+ * DCT components, it can be precomputed on backend and decoded into tiny image instantly on device.
+ * Works on plain ARGB pixel arrays, see {@link android.graphics.Bitmap#getPixels} and
+ * {@link android.graphics.Bitmap#createBitmap(int[], int, int, android.graphics.Bitmap.Config)}.
+ */
+public final class BlurHash {
+    private static final String BASE83_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+    private static final int MAX_COMPONENTS = 9;
+    private static final double[] SRGB_TO_LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            double v = i / 255d;
+            SRGB_TO_LINEAR[i] = v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    private BlurHash() {
+    }
+
+    /**
+     * @param pixels      ARGB pixels of image, alpha is ignored
+     * @param componentsX count of horizontal components from 1 to 9
+     * @param componentsY count of vertical components from 1 to 9
+     * @return hash of 4 + 2 * componentsX * componentsY characters
+     */
+    public static String encode(int[] pixels, int width, int height, int componentsX, int componentsY) {
+        if (componentsX < 1 || componentsX > MAX_COMPONENTS || componentsY < 1 || componentsY > MAX_COMPONENTS)
+            throw new IllegalArgumentException("Components count must be from 1 to " + MAX_COMPONENTS);
+        if (width <= 0 || height <= 0 || pixels.length < width * height)
+            throw new IllegalArgumentException("Pixels don't match image size " + width + "x" + height);
+
+        double[][] factors = new double[componentsX * componentsY][3];
+        double[] cosX = new double[width];
+        double[] cosY = new double[height];
+        for (int j = 0; j < componentsY; j++) {
+            cosTable(cosY, j, height);
+            for (int i = 0; i < componentsX; i++) {
+                cosTable(cosX, i, width);
+                double r = 0, g = 0, b = 0;
+                for (int y = 0; y < height; y++) {
+                    int row = y * width;
+                    for (int x = 0; x < width; x++) {
+                        double basis = cosX[x] * cosY[y];
+                        int color = pixels[row + x];
+                        r += basis * SRGB_TO_LINEAR[(color >> 16) & 0xFF];
+                        g += basis * SRGB_TO_LINEAR[(color >> 8) & 0xFF];
+                        b += basis * SRGB_TO_LINEAR[color & 0xFF];
+                    }
+                }
+                double scale = (i == 0 && j == 0 ? 1d : 2d) / (width * height);
+                double[] factor = factors[j * componentsX + i];
+                factor[0] = r * scale;
+                factor[1] = g * scale;
+                factor[2] = b * scale;
+            }
+        }
+
+        StringBuilder hash = new StringBuilder(4 + 2 * factors.length);
+        encode83((componentsX - 1) + (componentsY - 1) * 9, 1, hash);
+
+        double maximumValue = 1;
+        if (factors.length > 1) {
+            double actualMaximumValue = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double component : factors[k]) {
+                    actualMaximumValue = Math.max(actualMaximumValue, Math.abs(component));
+                }
+            }
+            int quantisedMaximumValue = (int) Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5)));
+            maximumValue = (quantisedMaximumValue + 1) / 166d;
+            encode83(quantisedMaximumValue, 1, hash);
+        } else {
+            encode83(0, 1, hash);
+        }
+
+        double[] dc = factors[0];
+        encode83((linearToSrgb(dc[0]) << 16) + (linearToSrgb(dc[1]) << 8) + linearToSrgb(dc[2]), 4, hash);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            encode83(quantiseAc(ac[0], maximumValue) * 19 * 19 + quantiseAc(ac[1], maximumValue) * 19 + quantiseAc(ac[2], maximumValue), 2, hash);
+        }
+        return hash.toString();
+    }
+
+    /**
+     * @param punch contrast multiplier of components, 1 keeps original contrast
+     * @return opaque ARGB pixels of image of requested size
+     * @throws IllegalArgumentException if hash is malformed
+     */
+    public static int[] decode(String hash, int width, int height, float punch) {
+        if (hash == null || hash.length() < 6)
+            throw new IllegalArgumentException("BlurHash must be at least 6 characters");
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        int sizeFlag = decode83(hash, 0, 1);
+        int componentsY = sizeFlag / 9 + 1;
+        int componentsX = sizeFlag % 9 + 1;
+        if (hash.length() != 4 + 2 * componentsX * componentsY)
+            throw new IllegalArgumentException("Invalid BlurHash length " + hash.length());
+
+        double maximumValue = (decode83(hash, 1, 2) + 1) / 166d * punch;
+        double[][] colors = new double[componentsX * componentsY][3];
+        int dc = decode83(hash, 2, 6);
+        colors[0][0] = SRGB_TO_LINEAR[(dc >> 16) & 0xFF];
+        colors[0][1] = SRGB_TO_LINEAR[(dc >> 8) & 0xFF];
+        colors[0][2] = SRGB_TO_LINEAR[dc & 0xFF];
+        for (int k = 1; k < colors.length; k++) {
+            int ac = decode83(hash, 4 + k * 2, 6 + k * 2);
+            colors[k][0] = signedPow2((ac / (19 * 19) - 9) / 9d) * maximumValue;
+            colors[k][1] = signedPow2((ac / 19 % 19 - 9) / 9d) * maximumValue;
+            colors[k][2] = signedPow2((ac % 19 - 9) / 9d) * maximumValue;
+        }
+
+        // basis functions are separable, so tables of cosines make decode linear in pixels count
+        double[][] cosX = new double[componentsX][width];
+        double[][] cosY = new double[componentsY][height];
+        for (int i = 0; i < componentsX; i++) cosTable(cosX[i], i, width);
+        for (int j = 0; j < componentsY; j++) cosTable(cosY[j], j, height);
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double r = 0, g = 0, b = 0;
+                for (int j = 0; j < componentsY; j++) {
+                    double basisY = cosY[j][y];
+                    for (int i = 0; i < componentsX; i++) {
+                        double basis = cosX[i][x] * basisY;
+                        double[] color = colors[j * componentsX + i];
+                        r += color[0] * basis;
+                        g += color[1] * basis;
+                        b += color[2] * basis;
+                    }
+                }
+                pixels[y * width + x] = 0xFF000000 | (linearToSrgb(r) << 16) | (linearToSrgb(g) << 8) | linearToSrgb(b);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return true if string has valid BlurHash structure
+     */
+    public static boolean isValid(String hash) {
+        if (hash == null || hash.length() < 6) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            if (BASE83_CHARS.indexOf(hash.charAt(i)) < 0) return false;
+        }
+        int sizeFlag = decode83(hash, 0, 1);
+        return hash.length() == 4 + 2 * (sizeFlag % 9 + 1) * (sizeFlag / 9 + 1);
+    }
+
+    private static void cosTable(double[] table, int component, int size) {
+        for (int k = 0; k < size; k++) {
+            table[k] = Math.cos(Math.PI * component * k / size);
+        }
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        return (int) Math.max(0, Math.min(18, Math.floor(signedPow(value / maximumValue, 0.5) * 9 + 9.5)));
+    }
+
+    private static double signedPow(double value, double exp) {
+        return Math.copySign(Math.pow(Math.abs(value), exp), value);
+    }
+
+    private static double signedPow2(double value) {
+        return Math.copySign(value * value, value);
+    }
+
+    private static int linearToSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        if (v <= 0.0031308) return (int) (v * 12.92 * 255 + 0.5);
+        return (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(int value, int length, StringBuilder out) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (value / pow83(length - i)) % 83;
+            out.append(BASE83_CHARS.charAt(digit));
+        }
+    }
+
+    private static int pow83(int exp) {
+        int result = 1;
+        for (int i = 0; i < exp; i++) result *= 83;
+        return result;
+    }
+
+    private static int decode83(String hash, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = BASE83_CHARS.indexOf(hash.charAt(i));
+            if (digit < 0)
+                throw new IllegalArgumentException("Invalid BlurHash character " + hash.charAt(i));
+            value = value * 83 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+
+import io.alterac.blurkit.BlurKit;
+
+/**
+ * RenderScript based {@link BlurEngine} backed by BlurKit, requires {@link BlurKit#init} to be called first.
+ */
+public class BlurKitBlurEngine implements BlurEngine {
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, int radius) {
+        return BlurKit.getInstance().blur(bitmap, radius);
+    }
+}
@@ -0,0 +1,146 @@
+package com.ramotion.expandingcollection;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Gaussian blur approximation by three successive box blurs over ARGB pixels buffer.
+ * Rows and columns of every pass are split across {@link ForkJoinPool}. Doesn't depend on android classes.
+ */
+public final class BoxBlur {
+    private static final int PASSES = 3;
+    private static final int MIN_LINES_PER_TASK = 16;
+
+    private BoxBlur() {
+    }
+
+    /**
+     * Blur pixels in place.
+     *
+     * @param pixels  ARGB pixels, row by row
+     * @param scratch buffer of at least the same length as pixels
+     * @param radius  radius of approximated gaussian blur
+     */
+    public static void blur(int[] pixels, int[] scratch, int width, int height, int radius, ForkJoinPool pool) {
+        if (radius < 1 || width <= 0 || height <= 0) return;
+        int[] boxes = boxesForGauss(radius / 2f, PASSES);
+        for (int box : boxes) {
+            int boxRadius = (box - 1) / 2;
+            if (boxRadius < 1) continue;
+            pool.invoke(new PassAction(pixels, scratch, width, height, boxRadius, true, 0, height,
+                    linesPerTask(height, pool.getParallelism())));
+            pool.invoke(new PassAction(scratch, pixels, width, height, boxRadius, false, 0, width,
+                    linesPerTask(width, pool.getParallelism())));
+        }
+    }
+
+    /**
+     * Sizes of box filters that together approximate gaussian with provided sigma.
+     */
+    static int[] boxesForGauss(float sigma, int n) {
+        float idealWidth = (float) Math.sqrt((12 * sigma * sigma / n) + 1);
+        int lower = (int) Math.floor(idealWidth);
+        if (lower % 2 == 0) lower--;
+        int upper = lower + 2;
+        float idealLowerCount = (12 * sigma * sigma - n * lower * lower - 4 * n * lower - 3 * n) / (-4f * lower - 4);
+        int lowerCount = Math.round(idealLowerCount);
+        int[] sizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            sizes[i] = i < lowerCount ? lower : upper;
+        }
+        return sizes;
+    }
+
+    private static int linesPerTask(int lines, int parallelism) {
+        return Math.max(MIN_LINES_PER_TASK, lines / (parallelism * 4));
+    }
+
+    static void blurRows(int[] src, int[] dst, int width, int radius, int fromRow, int toRow) {
+        int divider = radius * 2 + 1;
+        int lastX = width - 1;
+        for (int y = fromRow; y < toRow; y++) {
+            int row = y * width;
+            int sa = 0, sr = 0, sg = 0, sb = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int p = src[row + Math.min(Math.max(i, 0), lastX)];
+                sa += p >>> 24;
+                sr += (p >> 16) & 0xFF;
+                sg += (p >> 8) & 0xFF;
+                sb += p & 0xFF;
+            }
+            for (int x = 0; x < width; x++) {
+                dst[row + x] = ((sa / divider) << 24) | ((sr / divider) << 16) | ((sg / divider) << 8) | (sb / divider);
+                int out = src[row + Math.max(x - radius, 0)];
+                int in = src[row + Math.min(x + radius + 1, lastX)];
+                sa += (in >>> 24) - (out >>> 24);
+                sr += ((in >> 16) & 0xFF) - ((out >> 16) & 0xFF);
+                sg += ((in >> 8) & 0xFF) - ((out >> 8) & 0xFF);
+                sb += (in & 0xFF) - (out & 0xFF);
+            }
+        }
+    }
+
+    static void blurColumns(int[] src, int[] dst, int width, int height, int radius, int fromColumn, int toColumn) {
+        int divider = radius * 2 + 1;
+        int lastY = height - 1;
+        for (int x = fromColumn; x < toColumn; x++) {
+            int sa = 0, sr = 0, sg = 0, sb = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int p = src[Math.min(Math.max(i, 0), lastY) * width + x];
+                sa += p >>> 24;
+                sr += (p >> 16) & 0xFF;
+                sg += (p >> 8) & 0xFF;
+                sb += p & 0xFF;
+            }
+            for (int y = 0; y < height; y++) {
+                dst[y * width + x] = ((sa / divider) << 24) | ((sr / divider) << 16) | ((sg / divider) << 8) | (sb / divider);
+                int out = src[Math.max(y - radius, 0) * width + x];
+                int in = src[Math.min(y + radius + 1, lastY) * width + x];
+                sa += (in >>> 24) - (out >>> 24);
+                sr += ((in >> 16) & 0xFF) - ((out >> 16) & 0xFF);
+                sg += ((in >> 8) & 0xFF) - ((out >> 8) & 0xFF);
+                sb += (in & 0xFF) - (out & 0xFF);
+            }
+        }
+    }
+
+    private static class PassAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] src;
+        private final int[] dst;
+        private final int width;
+        private final int height;
+        private final int radius;
+        private final boolean horizontal;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        PassAction(int[] src, int[] dst, int width, int height, int radius, boolean horizontal, int from, int to, int threshold) {
+            this.src = src;
+            this.dst = dst;
+            this.width = width;
+            this.height = height;
+            this.radius = radius;
+            this.horizontal = horizontal;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                if (horizontal)
+                    blurRows(src, dst, width, radius, from, to);
+                else
+                    blurColumns(src, dst, width, height, radius, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PassAction(src, dst, width, height, radius, horizontal, from, middle, threshold),
+                    new PassAction(src, dst, width, height, radius, horizontal, middle, to, threshold));
+        }
+    }
+}
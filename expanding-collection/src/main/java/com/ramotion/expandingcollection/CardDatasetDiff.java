@@ -0,0 +1,100 @@
+package com.ramotion.expandingcollection;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difference between two datasets of {@link ECPagerViewAdapter}. Cards are matched by {@link ECCardData#getStableId()}
+ * or by instance if they have no id. Inserted, removed and moved cards are described by new positions of all ids,
+ * cards that kept the id but got different content are listed separately to be rebound in place.
+ */
+final class CardDatasetDiff {
+    private static final String TAG = "CardDatasetDiff";
+
+    final Map<Object, Integer> newPositions;
+    final Set<Object> changedIds;
+
+    private CardDatasetDiff(Map<Object, Integer> newPositions, Set<Object> changedIds) {
+        this.newPositions = newPositions;
+        this.changedIds = changedIds;
+    }
+
+    /**
+     * Compare datasets, it's done off the main thread for large datasets.
+     */
+    static CardDatasetDiff calculate(List<ECCardData> oldDataset, List<ECCardData> newDataset, ECPagerViewAdapter adapter) {
+        Map<Object, Integer> newPositions = positionsOf(newDataset);
+        Set<Object> changedIds = new HashSet<>();
+        for (ECCardData oldData : oldDataset) {
+            Object id = idOf(oldData);
+            Integer newPosition = newPositions.get(id);
+            if (newPosition == null) continue;
+            ECCardData newData = newDataset.get(newPosition);
+            if (newData != oldData && !adapter.areCardContentsTheSame(oldData, newData))
+                changedIds.add(id);
+        }
+        return new CardDatasetDiff(newPositions, changedIds.isEmpty() ? Collections.emptySet() : changedIds);
+    }
+
+    /**
+     * Dataset is iterated, so not loaded cards of {@link ECCardDataSource} are seen as placeholders and not loaded.
+     *
+     * @return position of every id, or empty map if some id repeats, then no card is matched and all of them
+     * are recreated as by full reload
+     */
+    static Map<Object, Integer> positionsOf(List<ECCardData> dataset) {
+        Map<Object, Integer> positions = new HashMap<>(dataset.size() * 4 / 3 + 1);
+        int position = 0;
+        for (ECCardData data : dataset) {
+            if (positions.put(idOf(data), position++) != null) {
+                Log.w(TAG, "Card at " + (position - 1) + " has the same id as earlier card, all cards are reloaded");
+                return Collections.emptyMap();
+            }
+        }
+        return positions;
+    }
+
+    static Object idOf(ECCardData data) {
+        long stableId = data.getStableId();
+        return stableId != ECCardData.NO_ID ? (Object) stableId : new InstanceId(data);
+    }
+
+    /**
+     * Stable item id of card for RecyclerView of {@link ECRecyclerPager}. Stable id of card is used as is,
+     * cards without it get ids from the bottom of long range: placeholders by position, others by instance.
+     */
+    static long itemIdOf(ECCardData data) {
+        long stableId = data.getStableId();
+        if (stableId != ECCardData.NO_ID) return stableId;
+        if (data instanceof ECCardDataSource.PlaceholderCardData)
+            return Long.MIN_VALUE + (1L << 32) + ((ECCardDataSource.PlaceholderCardData) data).getPosition();
+        return Long.MIN_VALUE + (System.identityHashCode(data) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Id of card without stable id, equal only for the same instance.
+     */
+    private static final class InstanceId {
+        private final ECCardData data;
+
+        private InstanceId(ECCardData data) {
+            this.data = data;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof InstanceId && ((InstanceId) o).data == data;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(data);
+        }
+    }
+}
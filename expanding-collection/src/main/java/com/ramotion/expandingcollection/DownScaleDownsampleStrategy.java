@@ -0,0 +1,35 @@
+package com.ramotion.expandingcollection;
+
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
+
+/**
+ * Glide downsample strategy that decodes source at 1/downScale of its own size regardless of requested size,
+ * same as resource backgrounds are decoded by {@link BitmapWorkerTask}.
+ */
+public class DownScaleDownsampleStrategy extends DownsampleStrategy {
+    private final int downScale;
+
+    public DownScaleDownsampleStrategy(int downScale) {
+        this.downScale = Math.max(1, downScale);
+    }
+
+    @Override
+    public float getScaleFactor(int sourceWidth, int sourceHeight, int requestedWidth, int requestedHeight) {
+        return 1f / downScale;
+    }
+
+    @Override
+    public SampleSizeRounding getSampleSizeRounding(int sourceWidth, int sourceHeight, int requestedWidth, int requestedHeight) {
+        return SampleSizeRounding.QUALITY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DownScaleDownsampleStrategy && ((DownScaleDownsampleStrategy) o).downScale == downScale;
+    }
+
+    @Override
+    public int hashCode() {
+        return downScale;
+    }
+}
@@ -3,8 +3,8 @@ package com.ramotion.expandingcollection;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.View;
@@ -18,27 +18,20 @@ import android.widget.ImageSwitcher;
 import android.widget.ImageView;
 import android.widget.ViewSwitcher;
 
-import androidx.annotation.Nullable;
-
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.DataSource;
-import com.bumptech.glide.load.engine.GlideException;
-import com.bumptech.glide.request.RequestListener;
-import com.bumptech.glide.request.target.Target;
-
-import java.util.concurrent.ExecutionException;
-
-import io.alterac.blurkit.BlurKit;
 import ramotion.com.expandingcollection.R;
 
 /**
  * Custom Image Switcher for display and change background images with some pretty animations.
  * Uses different drawing orders for animation purposes.
  */
-public class ECBackgroundSwitcherView extends ImageSwitcher {
+public class ECBackgroundSwitcherView extends ImageSwitcher implements BackgroundPrefetcher.Host {
 
     private final int[] REVERSE_ORDER = new int[]{1, 0};
     private final int[] NORMAL_ORDER = new int[]{0, 1};
+    // placeholder is scaled up by image view, more pixels don't add any detail to a few components
+    static final int PLACEHOLDER_WIDTH = 32;
+    // values of backgroundStorage attribute
+    private static final int STORAGE_COMPACT = 1;
 
     private boolean reverseDrawOrder;
 
@@ -50,6 +43,9 @@ public class ECBackgroundSwitcherView extends ImageSwitcher {
     private int widthBackgroundImageGapPercent = 12;
     private int downScale = 8;
     private int blurRadius = 6;
+    private Bitmap.Config backgroundConfig = Bitmap.Config.ARGB_8888;
+    private BlurEngine blurEngine = new BlurKitBlurEngine();
+    private String cacheNamespace = BackgroundKey.DEFAULT_NAMESPACE;
 
     private Animation bgImageInLeftAnimation;
     private Animation bgImageOutLeftAnimation;
@@ -57,9 +53,17 @@ public class ECBackgroundSwitcherView extends ImageSwitcher {
     private Animation bgImageInRightAnimation;
     private Animation bgImageOutRightAnimation;
 
+    private Animation bgImageSwapInAnimation;
+    private Animation bgImageSwapOutAnimation;
+
     private AnimationDirection currentAnimationDirection;
 
-    private BitmapWorkerTask mCurrentAnimationTask;
+    private BackgroundBitmapLoader.Request mCurrentBackgroundRequest;
+    // incremented on every background change, results of older generations are never displayed
+    private int backgroundGeneration;
+    private final BackgroundPrefetcher prefetcher = new BackgroundPrefetcher(this);
+    private final ExpandBackgroundEffect expandEffect = new ExpandBackgroundEffect(this);
+    private boolean pageSettled = true;
 
     public ECBackgroundSwitcherView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -68,6 +72,7 @@ public class ECBackgroundSwitcherView extends ImageSwitcher {
 
     private void inflateAndInit(final Context context, AttributeSet attrs) {
         setChildrenDrawingOrderEnabled(true);
+        MainThreadGuard.init(context);
         DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
         bgImageGap = (displayMetrics.widthPixels / 100) * widthBackgroundImageGapPercent;
         bgImageWidth = displayMetrics.widthPixels + bgImageGap * 2;
@@ -86,11 +91,15 @@ public class ECBackgroundSwitcherView extends ImageSwitcher {
         bgImageOutLeftAnimation = createBgImageOutAnimation(0, -bgImageGap, movementDuration);
         bgImageInRightAnimation = createBgImageInAnimation(-bgImageGap, 0, movementDuration, alphaDuration);
         bgImageOutRightAnimation = createBgImageOutAnimation(0, bgImageGap, movementDuration);
+        bgImageSwapInAnimation = createBgImageInAnimation(0, 0, alphaDuration, alphaDuration);
+        bgImageSwapOutAnimation = createBgImageOutAnimation(0, 0, alphaDuration);
 
         TypedArray array = context.getTheme().obtainStyledAttributes(attrs, R.styleable.ExpandingCollection, 0, 0);
         try {
             downScale = array.getInt(R.styleable.ExpandingCollection_downScale, downScale);
             blurRadius = array.getDimensionPixelSize(R.styleable.ExpandingCollection_blurRadius, blurRadius);
+            if (array.getInt(R.styleable.ExpandingCollection_backgroundStorage, 0) == STORAGE_COMPACT)
+                backgroundConfig = Bitmap.Config.RGB_565;
         } finally {
             array.recycle();
         }
@@ -118,6 +127,110 @@ public class ECBackgroundSwitcherView extends ImageSwitcher {
         this.reverseDrawOrder = reverseDrawOrder;
     }
 
+    /**
+     * Select blur implementation for backgrounds, {@link BlurKitBlurEngine} is used by default.
+     * Use {@link JavaBlurEngine} to avoid RenderScript.
+     *
+     * @param blurEngine blur implementation
+     */
+    public void setBlurEngine(BlurEngine blurEngine) {
+        this.blurEngine = blurEngine;
+        prefetcher.invalidateKeys();
+    }
+
+    @Override
+    public BlurEngine getBlurEngine() {
+        return blurEngine;
+    }
+
+    /**
+     * Select config of processed backgrounds. {@link Bitmap.Config#RGB_565} takes half the memory
+     * of default {@link Bitmap.Config#ARGB_8888}, so twice as many backgrounds fit into cache, while
+     * banding isn't visible on blurred and darkened image.
+     *
+     * @param backgroundConfig config of processed backgrounds
+     */
+    public void setBackgroundConfig(Bitmap.Config backgroundConfig) {
+        this.backgroundConfig = backgroundConfig != null ? backgroundConfig : Bitmap.Config.ARGB_8888;
+        prefetcher.invalidateKeys();
+    }
+
+    public Bitmap.Config getBackgroundConfig() {
+        return backgroundConfig;
+    }
+
+    /**
+     * Set namespace of cached backgrounds. Use different namespaces for several pagers on one screen,
+     * each of them is limited by own quota in {@link BackgroundBitmapCache}.
+     *
+     * @param cacheNamespace name of namespace
+     */
+    public void setCacheNamespace(String cacheNamespace) {
+        this.cacheNamespace = cacheNamespace != null ? cacheNamespace : BackgroundKey.DEFAULT_NAMESPACE;
+        prefetcher.invalidateKeys();
+    }
+
+    public String getCacheNamespace() {
+        return cacheNamespace;
+    }
+
+    /**
+     * @return prefetcher of backgrounds around the visible page, use it to tune prefetch window
+     */
+    public BackgroundPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * @return effect applied to background while card expands, use it to select and tune the effect
+     */
+    public ExpandBackgroundEffect getExpandEffect() {
+        return expandEffect;
+    }
+
+    /**
+     * Pager stopped or started scrolling, blur pyramid of expand effect is built only for settled page.
+     */
+    void setPageSettled(boolean pageSettled) {
+        this.pageSettled = pageSettled;
+        if (pageSettled)
+            expandEffect.prepare(getCurrentBitmap(), blurEngine);
+    }
+
+    void setExpandProgress(float progress) {
+        expandEffect.setProgress(progress);
+        int alpha = expandEffect.getBackgroundAlpha();
+        for (int i = 0; i < getChildCount(); i++) {
+            ((ImageView) getChildAt(i)).setImageAlpha(alpha);
+        }
+    }
+
+    private Bitmap getCurrentBitmap() {
+        ImageView image = (ImageView) getCurrentView();
+        if (image != null && image.getDrawable() instanceof BitmapDrawable)
+            return ((BitmapDrawable) image.getDrawable()).getBitmap();
+        return null;
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        // blurred levels are laid out the same way as image views
+        expandEffect.draw(canvas, -bgImageGap, 0, bgImageWidth - bgImageGap, getHeight());
+    }
+
+    /**
+     * @return key of processed background for card at position with current switcher settings
+     */
+    @Override
+    public BackgroundKey getBackgroundKey(ECCardPager pager, int position) {
+        return BackgroundKey.forCard(cacheNamespace, pager.getDataFromAdapterDataset(position), downScale, blurRadius, blurEngine, backgroundConfig);
+    }
+
+    public boolean isBackgroundCached(ECCardPager pager, int position) {
+        return BackgroundBitmapCache.getInstance().getBitmapFromBgMemCache(prefetcher.getKey(pager, position)) != null;
+    }
+
     private synchronized void setImageBitmapWithAnimation(Bitmap newBitmap, AnimationDirection animationDirection) {
         if (this.currentAnimationDirection == animationDirection) {
             this.setImageBitmap(newBitmap);
@@ -133,74 +246,140 @@ public class ECBackgroundSwitcherView extends ImageSwitcher {
         this.currentAnimationDirection = animationDirection;
     }
 
-    public void cacheBackgroundAtPosition(ECPager pager, int position) {
-        if (position >= 0 && position < pager.getAdapter().getCount()) {
-            String imageUrl = pager.getDataFromAdapterDataset(position).getBackgroundUrl();
-            Integer mainBgImageDrawableResource = pager.getDataFromAdapterDataset(position).getMainBackgroundResource();
-            if (mainBgImageDrawableResource == null && imageUrl == null) return;
-            BitmapWorkerTask addBitmapToCacheTask = new BitmapWorkerTask(getContext(), mainBgImageDrawableResource, imageUrl, downScale, blurRadius);
-            addBitmapToCacheTask.execute(mainBgImageDrawableResource);
-        }
+    /**
+     * Replace placeholder with real background in place, without movement.
+     */
+    private synchronized void swapImageBitmap(Bitmap newBitmap) {
+        this.setInAnimation(bgImageSwapInAnimation);
+        this.setOutAnimation(bgImageSwapOutAnimation);
+        this.setImageBitmap(newBitmap);
+        // force next transition to set up own animations
+        this.currentAnimationDirection = null;
+    }
+
+    /**
+     * Show decoded {@link ECCardData#getBackgroundPlaceholder()} of card at position if there is one.
+     *
+     * @return true if placeholder is shown
+     */
+    private boolean showPlaceholder(ECCardPager pager, int position, AnimationDirection direction) {
+        Bitmap placeholder = decodePlaceholder(pager.getDataFromAdapterDataset(position).getBackgroundPlaceholder());
+        if (placeholder == null) return false;
+        setImageBitmapWithAnimation(placeholder, direction);
+        return true;
     }
 
-    public void updateCurrentBackground(ECPager pager, final AnimationDirection direction) {
+    private Bitmap decodePlaceholder(String hash) {
+        int height = getHeight() > 0 ? Math.max(1, PLACEHOLDER_WIDTH * getHeight() / bgImageWidth) : PLACEHOLDER_WIDTH;
+        return decodePlaceholder(hash, PLACEHOLDER_WIDTH, height);
+    }
+
+    /**
+     * Decode {@link BlurHash} placeholder darkened the same way as processed background.
+     *
+     * @return placeholder bitmap or null if hash is missing or invalid
+     */
+    static Bitmap decodePlaceholder(String hash, int width, int height) {
+        if (hash == null || !BlurHash.isValid(hash)) return null;
+        int[] pixels = BlurHash.decode(hash, width, height, 1f);
+        Bitmap placeholder = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        placeholder.setPixels(pixels, 0, width, 0, 0, width, height);
+        return BitmapWorkerTask.darkenBitMap(placeholder);
+    }
+
+    public void updateCurrentBackground(ECCardPager pager, final AnimationDirection direction) {
+        backgroundGeneration++;
+        cancelCurrentBackgroundRequest();
         int position = pager.getCurrentPosition();
         BackgroundBitmapCache instance = BackgroundBitmapCache.getInstance();
-        String imageUrl = pager.getDataFromAdapterDataset(position).getBackgroundUrl();
-        Integer mainBgImageDrawableResource = pager.getDataFromAdapterDataset(position).getMainBackgroundResource();
-        Bitmap cachedBitmap = instance.getBitmapFromBgMemCache(String.valueOf(imageUrl != null ? imageUrl : mainBgImageDrawableResource));
+        final BackgroundKey key = prefetcher.getKey(pager, position);
+        // retained until it's shown, so it can't be evicted into pool and reused by a worker meanwhile
+        Bitmap cachedBitmap = instance.retainBitmapFromBgMemCache(key);
         if (cachedBitmap == null) {
-            if (mainBgImageDrawableResource == null && imageUrl == null) return;
-            if (imageUrl != null) {
-                Glide.with(getContext()).asBitmap().load(imageUrl).addListener(new RequestListener<Bitmap>() {
-                    @Override
-                    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Bitmap> target, boolean isFirstResource) {
-                        return false;
-                    }
-
-                    @Override
-                    public boolean onResourceReady(Bitmap resource, Object model, Target<Bitmap> target, DataSource dataSource, boolean isFirstResource) {
-                        resource = BitmapWorkerTask.processBitmap(resource, downScale, blurRadius);
-                        instance.addBitmapToBgMemoryCache(imageUrl, resource);
-                        Bitmap finalResource = resource;
-                        post(() -> setImageBitmapWithAnimation(finalResource, direction));
-                        return true;
-                    }
-                }).submit();
+            if (!key.hasSource()) return;
+            if (key.getImageUrl() != null || MainThreadGuard.isAsyncDecoding()) {
+                // network can't be waited for, url is loaded and processed by Glide through the loader,
+                // resource is decoded off the main thread while placeholder or previous image is shown
+                updateCurrentBackgroundAsync(pager, direction);
             }else {
-                cachedBitmap = BitmapFactory.decodeResource(getResources(), mainBgImageDrawableResource, new BitmapFactoryOptions());
-                cachedBitmap = BitmapWorkerTask.processBitmap(cachedBitmap, downScale, blurRadius);
+                cachedBitmap = PrebuiltBackgrounds.load(getContext(), key);
+                if (cachedBitmap == null)
+                    cachedBitmap = BitmapWorkerTask.decodeAndProcessResource(getResources(), key.getResId(), downScale, blurRadius, blurEngine, backgroundConfig);
 
-                instance.addBitmapToBgMemoryCache(mainBgImageDrawableResource, cachedBitmap);
+                BitmapPool.getInstance().retain(cachedBitmap);
+                instance.addBitmapToBgMemoryCache(key, cachedBitmap);
                 setImageBitmapWithAnimation(cachedBitmap, direction);
+                BitmapPool.getInstance().release(cachedBitmap);
             }
-        }else
+        }else {
+            BackgroundStats.getInstance().onCachedBackgroundShown(key);
             setImageBitmapWithAnimation(cachedBitmap, direction);
+            BitmapPool.getInstance().release(cachedBitmap);
+        }
     }
 
-    public void updateCurrentBackgroundAsync(ECPager pager, final AnimationDirection direction) {
-        if (mCurrentAnimationTask != null && mCurrentAnimationTask.getStatus().equals(AsyncTask.Status.RUNNING)) {
-            getInAnimation().cancel();
+    /**
+     * Previous page isn't visible anymore, don't let its work delay the current one.
+     */
+    private void cancelCurrentBackgroundRequest() {
+        if (mCurrentBackgroundRequest != null && !mCurrentBackgroundRequest.isFinished()) {
+            mCurrentBackgroundRequest.cancel();
+            if (getInAnimation() != null) getInAnimation().cancel();
         }
-        int position = pager.getCurrentPosition();
-        String imageUrl = pager.getDataFromAdapterDataset(position).getBackgroundUrl();
-        Integer mainBgImageDrawableResource = pager.getDataFromAdapterDataset(position).getMainBackgroundResource();
-        if (mainBgImageDrawableResource == null && imageUrl == null) return;
-        mCurrentAnimationTask = new BitmapWorkerTask(getContext(), mainBgImageDrawableResource, imageUrl, downScale, blurRadius) {
-            @Override
-            protected void onPostExecute(Bitmap bitmap) {
-                super.onPostExecute(bitmap);
-                setImageBitmapWithAnimation(bitmap, direction);
-            }
-        };
-        mCurrentAnimationTask.execute(mainBgImageDrawableResource);
+        mCurrentBackgroundRequest = null;
+    }
+
+    public void updateCurrentBackgroundAsync(ECCardPager pager, final AnimationDirection direction) {
+        final int generation = ++backgroundGeneration;
+        cancelCurrentBackgroundRequest();
+        BackgroundKey key = prefetcher.getKey(pager, pager.getCurrentPosition());
+        if (!key.hasSource()) return;
+        // move to placeholder right away, real background replaces it in place when ready
+        final boolean placeholderShown = showPlaceholder(pager, pager.getCurrentPosition(), direction);
+        mCurrentBackgroundRequest = BackgroundBitmapLoader.getInstance().load(getContext(), key, blurEngine, BitmapWorkerTask.Priority.CURRENT,
+                new BackgroundBitmapLoader.Callback() {
+                    @Override
+                    public void onBitmapLoaded(Bitmap bitmap) {
+                        if (generation != backgroundGeneration) {
+                            BackgroundStats.getInstance().onStaleResultDropped();
+                            return;
+                        }
+                        if (placeholderShown) {
+                            // keep placeholder if background failed to load
+                            if (bitmap != null) swapImageBitmap(bitmap);
+                        } else
+                            setImageBitmapWithAnimation(bitmap, direction);
+                    }
+                });
     }
 
 
     private void setImageBitmap(Bitmap bitmap) {
         ImageView image = (ImageView) this.getNextView();
+        BitmapPool pool = BitmapPool.getInstance();
+        if (image.getDrawable() instanceof BitmapDrawable)
+            pool.release(((BitmapDrawable) image.getDrawable()).getBitmap());
+        pool.retain(bitmap);
         image.setImageBitmap(bitmap);
         showNext();
+        if (pageSettled)
+            expandEffect.prepare(bitmap, blurEngine);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        BackgroundBitmapCache.getInstance().registerComponentCallbacks(getContext());
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        BackgroundBitmapCache.getInstance().unregisterComponentCallbacks(getContext());
+        // queued loads would keep detached view reachable and fill cache for nothing
+        prefetcher.cancelAll();
+        backgroundGeneration++;
+        cancelCurrentBackgroundRequest();
     }
 
     private Animation createBgImageInAnimation(int fromX, int toX, int transitionDuration, int alphaDuration) {
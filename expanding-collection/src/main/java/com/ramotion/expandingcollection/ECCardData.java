@@ -12,6 +12,8 @@ import androidx.annotation.DrawableRes;
  */
 public interface ECCardData<T> {
 
+    long NO_ID = -1;
+
     @DrawableRes
     Integer getMainBackgroundResource();
 
@@ -20,5 +22,24 @@ public interface ECCardData<T> {
 
     String getBackgroundUrl();
 
+    /**
+     * Compact {@link BlurHash} of background image, shown while real background is processed.
+     *
+     * @return hash string or null if there is no placeholder
+     */
+    default String getBackgroundPlaceholder() {
+        return null;
+    }
+
+    /**
+     * Id that stays the same for the card across dataset updates, so {@link ECPagerViewAdapter} keeps its view
+     * when dataset changes. Cards without id are matched by instance.
+     *
+     * @return stable id or {@link #NO_ID}
+     */
+    default long getStableId() {
+        return NO_ID;
+    }
+
     List<T> getListItems();
 }
@@ -0,0 +1,276 @@
+package com.ramotion.expandingcollection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Dataset of {@link ECPagerViewAdapter} that is loaded by pages around the current card instead of being
+ * kept in memory as a whole. Size of the list is the total count of cards, cards of pages that aren't loaded yet
+ * are returned as {@link PlaceholderCardData} and shown as empty placeholder cards until the page arrives.
+ * Pages far from the current card are evicted. Must be accessed on the main thread.
+ * Only {@link #get(int)} starts loading, iteration and other whole-list operations see placeholders for cards
+ * that aren't loaded. Equality is of instances, so comparing data sources loads nothing.
+ */
+public abstract class ECCardDataSource extends AbstractList<ECCardData> {
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final List<OnRangeChangedListener> listeners = new ArrayList<>();
+
+    private final int pageSize;
+    private int prefetchPages = 1;
+    private int maxLoadedPages = 5;
+
+    private final SparseArray<List<? extends ECCardData>> pages = new SparseArray<>();
+    private final SparseBooleanArray loadingPages = new SparseBooleanArray();
+    // incremented on invalidation, results of older loads are dropped
+    private int generation;
+    private int currentPage;
+
+    public ECCardDataSource(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * @return total count of cards, including ones that aren't loaded
+     */
+    public abstract int getTotalCount();
+
+    /**
+     * Start loading of page. Callback may be called from any thread, also right inside this method.
+     *
+     * @param page   index of page
+     * @param offset position of the first card of page
+     * @param count  number of cards in page
+     */
+    protected abstract void loadPage(int page, int offset, int count, PageCallback callback);
+
+    @Override
+    public int size() {
+        return getTotalCount();
+    }
+
+    /**
+     * @return loaded card or placeholder if its page isn't loaded yet, loading is started then
+     */
+    @Override
+    public ECCardData get(int position) {
+        ECCardData data = peek(position);
+        if (data instanceof PlaceholderCardData)
+            requestPage(position / pageSize);
+        return data;
+    }
+
+    /**
+     * @return loaded card or placeholder, loading isn't started
+     */
+    public ECCardData peek(int position) {
+        if (position < 0 || position >= getTotalCount())
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + getTotalCount());
+        int page = position / pageSize;
+        List<? extends ECCardData> items = pages.get(page);
+        int index = position - page * pageSize;
+        return items != null && index < items.size() ? items.get(index) : new PlaceholderCardData(position);
+    }
+
+    @Override
+    public ListIterator<ECCardData> listIterator(int index) {
+        // the default one calls get() and so would load every page
+        return new AbstractList<ECCardData>() {
+            @Override
+            public ECCardData get(int position) {
+                return peek(position);
+            }
+
+            @Override
+            public int size() {
+                return getTotalCount();
+            }
+        }.listIterator(index);
+    }
+
+    @Override
+    public Iterator<ECCardData> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    public boolean isLoaded(int position) {
+        List<? extends ECCardData> items = pages.get(position / pageSize);
+        return items != null && position % pageSize < items.size();
+    }
+
+    /**
+     * Load pages around current card and evict far ones, called by {@link ECPagerViewAdapter} when page is selected.
+     */
+    public void setCurrentPosition(int position) {
+        int page = position / pageSize;
+        if (page == currentPage && pages.get(page) != null) return;
+        currentPage = page;
+        for (int distance = 0; distance <= prefetchPages; distance++) {
+            requestPage(page + distance);
+            if (distance > 0)
+                requestPage(page - distance);
+        }
+        evictFarPages();
+    }
+
+    /**
+     * Drop all loaded pages, e.g. when backing data changed. Cards are reloaded around the current one.
+     */
+    public void invalidate() {
+        generation++;
+        pages.clear();
+        loadingPages.clear();
+        for (int distance = 0; distance <= prefetchPages; distance++) {
+            requestPage(currentPage + distance);
+            if (distance > 0)
+                requestPage(currentPage - distance);
+        }
+        notifyRangeChanged(0, getTotalCount());
+    }
+
+    private void requestPage(final int page) {
+        final int offset = page * pageSize;
+        final int total = getTotalCount();
+        if (page < 0 || offset >= total || pages.get(page) != null || loadingPages.get(page)) return;
+        loadingPages.put(page, true);
+        final int requestGeneration = generation;
+        loadPage(page, offset, Math.min(pageSize, total - offset), new PageCallback() {
+            @Override
+            public void onPageLoaded(final List<? extends ECCardData> items) {
+                // always posted, so listeners never run inside get() called by pager while it lays out pages
+                mainThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration != generation) return;
+                        loadingPages.delete(page);
+                        // failed page is requested again next time one of its cards is needed
+                        if (items == null) return;
+                        pages.put(page, Collections.unmodifiableList(new ArrayList<>(items)));
+                        evictFarPages();
+                        if (pages.get(page) != null)
+                            notifyRangeChanged(offset, items.size());
+                    }
+                });
+            }
+        });
+    }
+
+    private void evictFarPages() {
+        while (pages.size() > maxLoadedPages) {
+            int farthest = 0;
+            for (int i = 1; i < pages.size(); i++) {
+                if (Math.abs(pages.keyAt(i) - currentPage) > Math.abs(pages.keyAt(farthest) - currentPage))
+                    farthest = i;
+            }
+            pages.removeAt(farthest);
+        }
+    }
+
+    private void notifyRangeChanged(int fromPosition, int count) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onRangeChanged(fromPosition, count);
+        }
+    }
+
+    public void addOnRangeChangedListener(OnRangeChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnRangeChangedListener(OnRangeChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param prefetchPages number of pages loaded ahead on each side of current page
+     */
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = Math.max(0, prefetchPages);
+    }
+
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    /**
+     * @param maxLoadedPages number of pages kept in memory, pages farthest from the current one are evicted first
+     */
+    public void setMaxLoadedPages(int maxLoadedPages) {
+        this.maxLoadedPages = Math.max(1, maxLoadedPages);
+        evictFarPages();
+    }
+
+    public int getMaxLoadedPages() {
+        return maxLoadedPages;
+    }
+
+    public interface PageCallback {
+        /**
+         * @param items cards of page or null if loading failed
+         */
+        void onPageLoaded(List<? extends ECCardData> items);
+    }
+
+    /**
+     * Notified on main thread when cards of range are loaded or invalidated.
+     */
+    public interface OnRangeChangedListener {
+        void onRangeChanged(int fromPosition, int count);
+    }
+
+    /**
+     * Card of page that isn't loaded yet, it has no backgrounds and no content.
+     */
+    public static class PlaceholderCardData implements ECCardData<Object> {
+        private final int position;
+
+        PlaceholderCardData(int position) {
+            this.position = position;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        @Override
+        public Integer getMainBackgroundResource() {
+            return null;
+        }
+
+        @Override
+        public Integer getHeadBackgroundResource() {
+            return null;
+        }
+
+        @Override
+        public String getBackgroundUrl() {
+            return null;
+        }
+
+        @Override
+        public List<Object> getListItems() {
+            return Collections.emptyList();
+        }
+    }
+}
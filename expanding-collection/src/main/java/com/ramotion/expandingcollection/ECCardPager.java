@@ -0,0 +1,72 @@
+package com.ramotion.expandingcollection;
+
+import android.animation.AnimatorListenerAdapter;
+
+import androidx.viewpager.widget.ViewPager;
+
+/**
+ * Card pager inside {@link ECPagerView}, implemented by {@link ECPager} on ViewPager and by {@link ECRecyclerPager}
+ * on ViewPager2, see {@link ECPagerView.PagerEngine}. Implementations are views and are used only inside {@link ECPagerView}.
+ */
+public interface ECCardPager {
+
+    ECPagerViewAdapter getPagerViewAdapter();
+
+    void setPagerViewAdapter(ECPagerViewAdapter adapter);
+
+    ECCardData getDataFromAdapterDataset(int position);
+
+    int getCurrentPosition();
+
+    void setCurrentPosition(int currentPosition);
+
+    int getOffscreenPageLimit();
+
+    void setOffscreenPageLimit(int limit);
+
+    /**
+     * Page events are reported the same way by both engines, as by {@link ViewPager}.
+     */
+    void addOnPageChangeListener(ViewPager.OnPageChangeListener listener);
+
+    void enablePaging();
+
+    void disablePaging();
+
+    void updateLayoutDimensions(int cardWidth, int cardHeight);
+
+    void animateWidth(int targetWidth, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd);
+
+    void animateHeight(int targetHeight, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd);
+
+    /**
+     * Stop expand or collapse animation and jump to collapsed size, e.g. when expanded card is removed from dataset.
+     */
+    void collapseWithoutAnimation(int cardWidth, int cardHeight);
+
+    /**
+     * Apply dataset change made by {@link ECPagerViewAdapter#submitDataset}, with animation of moved and new cards.
+     */
+    void animateDatasetChange(Runnable change);
+
+    /**
+     * Start expand animation for currently active card.
+     *
+     * @return true if animation started
+     */
+    boolean expand();
+
+    /**
+     * Start collapse animation for currently active card.
+     *
+     * @return true if animation started
+     */
+    boolean collapse();
+
+    /**
+     * Toggle state of currently active card - collapse if card is expanded and otherwise
+     *
+     * @return true if animation started
+     */
+    boolean toggle();
+}
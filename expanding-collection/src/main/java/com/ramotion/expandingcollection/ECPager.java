@@ -1,26 +1,31 @@
 package com.ramotion.expandingcollection;
 
 import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
-import android.view.ViewGroup;
-import android.view.animation.AccelerateInterpolator;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.animation.DecelerateInterpolator;
 import android.widget.FrameLayout;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import androidx.viewpager.widget.PagerAdapter;
 import androidx.viewpager.widget.ViewPager;
 
 /**
  * Custom ViewPager used as main card pager, neighborhood elements are visible due to {@link ECPagerView},
  * so this pager element used only inside {@link ECPagerView}. Also pager can change self position and size
- * for animation purposes.
+ * for animation purposes. Default engine of {@link ECPagerView}, see {@link ECPagerView.PagerEngine}.
  */
-public class ECPager extends ViewPager {
+public class ECPager extends ViewPager implements ECCardPager {
+    private static final int DATASET_CHANGE_DURATION = 250;
+
     private int currentPosition;
     private boolean pagingDisabled;
+    private final PagerSizeAnimator sizeAnimator = new PagerSizeAnimator(this);
 
     public ECPager(Context context) {
         super(context);
@@ -33,6 +38,7 @@ public class ECPager extends ViewPager {
     }
 
     private void init() {
+        // initial limit, adjusted at runtime by OffscreenPagePolicy of ECPagerView
         this.setOffscreenPageLimit(3);
 //        this.setOverScrollMode(OVER_SCROLL_NEVER);
     }
@@ -47,20 +53,34 @@ public class ECPager extends ViewPager {
         return !this.pagingDisabled && super.onInterceptTouchEvent(event);
     }
 
+    @Override
     public void updateLayoutDimensions(int cardWidth, int cardHeight) {
         FrameLayout.LayoutParams pagerViewLayoutParams = (FrameLayout.LayoutParams) this.getLayoutParams();
         pagerViewLayoutParams.height = cardHeight;
         pagerViewLayoutParams.width = cardWidth;
     }
 
+    @Override
     public ECCardData getDataFromAdapterDataset(int position) {
         return ((ECPagerViewAdapter) this.getAdapter()).getDataset().get(position);
     }
 
+    @Override
+    public ECPagerViewAdapter getPagerViewAdapter() {
+        return (ECPagerViewAdapter) getAdapter();
+    }
+
+    @Override
+    public void setPagerViewAdapter(ECPagerViewAdapter adapter) {
+        setAdapter(adapter);
+    }
+
+    @Override
     public void enablePaging() {
         this.pagingDisabled = false;
     }
 
+    @Override
     public void disablePaging() {
         this.pagingDisabled = true;
     }
@@ -70,47 +90,57 @@ public class ECPager extends ViewPager {
         super.setAdapter(adapter);
     }
 
-    protected void animateWidth(int targetWidth, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
-        ValueAnimator pagerWidthAnimation = new ValueAnimator();
-        pagerWidthAnimation.setInterpolator(new AccelerateInterpolator());
-        pagerWidthAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                ViewGroup.LayoutParams pagerLayoutParams = getLayoutParams();
-                pagerLayoutParams.width = (int) animation.getAnimatedValue();
-                setLayoutParams(pagerLayoutParams);
-            }
-        });
+    @Override
+    public void animateWidth(int targetWidth, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
+        sizeAnimator.animateWidth(targetWidth, duration, startDelay, onAnimationEnd);
+    }
 
-        pagerWidthAnimation.setIntValues(getWidth(), targetWidth);
+    @Override
+    public void animateHeight(int targetHeight, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
+        sizeAnimator.animateHeight(targetHeight, duration, startDelay, onAnimationEnd);
+    }
 
-        pagerWidthAnimation.setStartDelay(startDelay);
-        pagerWidthAnimation.setDuration(duration);
-        if (onAnimationEnd != null)
-            pagerWidthAnimation.addListener(onAnimationEnd);
-        pagerWidthAnimation.start();
+    /**
+     * Stop expand or collapse animation and jump to collapsed size, e.g. when expanded card is removed from dataset.
+     * Listeners of stopped animations are notified, so card state is updated by them.
+     */
+    @Override
+    public void collapseWithoutAnimation(int cardWidth, int cardHeight) {
+        sizeAnimator.cancel();
+        updateLayoutDimensions(cardWidth, cardHeight);
+        requestLayout();
+        enablePaging();
     }
 
-    protected void animateHeight(int targetHeight, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
-        ValueAnimator pagerHeightAnimation = new ValueAnimator();
-        pagerHeightAnimation.setInterpolator(new DecelerateInterpolator());
-        pagerHeightAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+    /**
+     * Apply dataset change, surviving cards slide from their old places and new cards rise in.
+     */
+    @Override
+    public void animateDatasetChange(Runnable change) {
+        final Map<View, Integer> oldLefts = new HashMap<>();
+        for (int i = 0; i < getChildCount(); i++) {
+            View card = getChildAt(i);
+            oldLefts.put(card, card.getLeft() - getScrollX());
+        }
+        change.run();
+        getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
             @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                ViewGroup.LayoutParams pagerLayoutParams = getLayoutParams();
-                pagerLayoutParams.height = (int) animation.getAnimatedValue();
-                setLayoutParams(pagerLayoutParams);
+            public boolean onPreDraw() {
+                getViewTreeObserver().removeOnPreDrawListener(this);
+                for (int i = 0; i < getChildCount(); i++) {
+                    View card = getChildAt(i);
+                    Integer oldLeft = oldLefts.get(card);
+                    if (oldLeft == null) {
+                        card.setTranslationY(card.getHeight() / 4f);
+                        card.animate().translationY(0).setDuration(DATASET_CHANGE_DURATION).setInterpolator(new DecelerateInterpolator()).start();
+                    } else if (oldLeft != card.getLeft() - getScrollX()) {
+                        card.setTranslationX(oldLeft - (card.getLeft() - getScrollX()));
+                        card.animate().translationX(0).setDuration(DATASET_CHANGE_DURATION).setInterpolator(new DecelerateInterpolator()).start();
+                    }
+                }
+                return true;
             }
         });
-
-        pagerHeightAnimation.setIntValues(getHeight(), targetHeight);
-
-        pagerHeightAnimation.setDuration(duration);
-        pagerHeightAnimation.setStartDelay(startDelay);
-        if (onAnimationEnd != null)
-            pagerHeightAnimation.addListener(onAnimationEnd);
-
-        pagerHeightAnimation.start();
     }
 
     @Override
@@ -123,6 +153,7 @@ public class ECPager extends ViewPager {
      *
      * @return true if animation started
      */
+    @Override
     public boolean expand() {
         ECPagerViewAdapter adapter = (ECPagerViewAdapter) getAdapter();
         return adapter.getActiveCard().expand();
@@ -133,6 +164,7 @@ public class ECPager extends ViewPager {
      *
      * @return true if animation started
      */
+    @Override
     public boolean collapse() {
         ECPagerViewAdapter adapter = (ECPagerViewAdapter) getAdapter();
         return adapter.getActiveCard().collapse();
@@ -143,15 +175,18 @@ public class ECPager extends ViewPager {
      *
      * @return true if animation started
      */
+    @Override
     public boolean toggle() {
         ECPagerViewAdapter adapter = (ECPagerViewAdapter) getAdapter();
         return adapter.getActiveCard().toggle();
     }
 
+    @Override
     public int getCurrentPosition() {
         return currentPosition;
     }
 
+    @Override
     public void setCurrentPosition(int currentPosition) {
         this.currentPosition = currentPosition;
     }
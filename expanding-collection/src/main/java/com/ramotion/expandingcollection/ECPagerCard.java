@@ -5,6 +5,7 @@ import android.animation.AnimatorListenerAdapter;
 import android.content.Context;
 import android.util.AttributeSet;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.widget.FrameLayout;
 
 /**
@@ -15,6 +16,11 @@ public class ECPagerCard extends FrameLayout {
     private ECPagerCardContentList ecPagerCardContentList;
     private boolean animationInProgress;
     private boolean cardExpanded;
+    // view type of adapter this card was created for, recycled cards are reused only within the type
+    int viewType;
+    // adapter position and data card is bound to
+    int position;
+    ECCardData data;
 
     public ECPagerCard(Context context) {
         super(context);
@@ -45,11 +51,11 @@ public class ECPagerCard extends FrameLayout {
      * @return true if animation started
      */
     public boolean expand() {
-        if (animationInProgress || cardExpanded) return false;
+        if (animationInProgress || cardExpanded || viewType == ECPagerViewAdapter.PLACEHOLDER_VIEW_TYPE) return false;
         animationInProgress = true;
 
-        final ECPager pager = (ECPager) getParent();
-        final ECPagerView pagerView = (ECPagerView) pager.getParent();
+        final ECPagerView pagerView = findPagerView();
+        final ECCardPager pager = pagerView.getPager();
 
         pager.disablePaging();
 
@@ -74,6 +80,7 @@ public class ECPagerCard extends FrameLayout {
 
         ecPagerCardContentList.animateWidth(expandedCardWidth, cardAnimDuration, cardAnimDelay);
         pagerView.toggleTopMargin(cardAnimDuration, cardAnimDelay);
+        pagerView.animateExpandProgress(1f, cardAnimDuration, cardAnimDelay);
         pager.animateHeight(expandedCardHeight, cardAnimDuration, cardAnimDelay, onAnimationEnd);
         ecPagerCardContentList.getHeadView().animateHeight(pagerView.getCardHeaderExpandedHeight(), cardAnimDuration, cardAnimDelay);
         ecPagerCardContentList.showListElements();
@@ -89,8 +96,8 @@ public class ECPagerCard extends FrameLayout {
         if (animationInProgress || !cardExpanded) return false;
         animationInProgress = true;
 
-        final ECPager pager = (ECPager) getParent();
-        final ECPagerView pagerView = (ECPagerView) pager.getParent();
+        final ECPagerView pagerView = findPagerView();
+        final ECCardPager pager = pagerView.getPager();
 
         pager.disablePaging();
 
@@ -112,6 +119,7 @@ public class ECPagerCard extends FrameLayout {
         int pushNeighboursDuration = 200;
 
         pagerView.toggleTopMargin(cardAnimDuration, 0);
+        pagerView.animateExpandProgress(0f, cardAnimDuration, 0);
         pager.animateHeight(pagerView.getCardHeight(), cardAnimDuration, 0, null);
         ecPagerCardContentList.animateWidth(pagerView.getCardWidth(), cardAnimDuration, 0);
         ecPagerCardContentList.getHeadView().animateHeight(pagerView.getCardHeight(), cardAnimDuration, 0);
@@ -120,6 +128,44 @@ public class ECPagerCard extends FrameLayout {
         return true;
     }
 
+    /**
+     * Card is a child of pager itself or, with RecyclerView engine, of a list inside of it.
+     */
+    private ECPagerView findPagerView() {
+        ViewParent parent = getParent();
+        while (parent != null && !(parent instanceof ECPagerView))
+            parent = parent.getParent();
+        return (ECPagerView) parent;
+    }
+
+    /**
+     * @return true if card is expanded or animates expand or collapse, pager isn't in collapsed state then
+     */
+    boolean isExpandedOrAnimating() {
+        return cardExpanded || animationInProgress;
+    }
+
+    /**
+     * Drop expanded state and transformations of removed card, so it can be shown for another page.
+     */
+    void resetToCollapsed() {
+        // card may be removed in the middle of dataset change or expand animation
+        animate().cancel();
+        ecPagerCardContentList.cancelWidthAnimation();
+        ecPagerCardContentList.getHeadView().cancelHeightAnimation();
+        animationInProgress = false;
+        cardExpanded = false;
+        setAlpha(1f);
+        setScaleX(1f);
+        setScaleY(1f);
+        setTranslationX(0f);
+        setTranslationY(0f);
+        ecPagerCardContentList.getLayoutParams().width = LayoutParams.MATCH_PARENT;
+        ecPagerCardContentList.setSelection(0);
+        if (ecPagerCardContentList.getContentListItemAdapter() != null)
+            ecPagerCardContentList.hideListElements();
+    }
+
     /**
      * Toggle state of card - collapse if card is expanded and otherwise
      *
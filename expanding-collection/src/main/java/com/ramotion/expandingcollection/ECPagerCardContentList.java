@@ -22,6 +22,7 @@ public class ECPagerCardContentList extends ListView {
     private ECCardContentListItemAdapter contentListItemAdapter;
 
     private ECPagerCardHead headView;
+    private ValueAnimator widthAnimation;
 
     public ECPagerCardContentList(Context context) {
         super(context);
@@ -52,9 +53,8 @@ public class ECPagerCardContentList extends ListView {
     @Override
     public void setAdapter(ListAdapter adapter) {
         super.setAdapter(adapter);
-        if (adapter instanceof ECCardContentListItemAdapter) {
-            this.contentListItemAdapter = (ECCardContentListItemAdapter) adapter;
-        }
+        // card set up from scratch may have no content list anymore
+        this.contentListItemAdapter = adapter instanceof ECCardContentListItemAdapter ? (ECCardContentListItemAdapter) adapter : null;
     }
 
     @Override
@@ -103,7 +103,7 @@ public class ECPagerCardContentList extends ListView {
         // reset own width for smooth animation and avoid values like 'MATCH_PARENT'
         this.getLayoutParams().width = this.getWidth();
 
-        ValueAnimator widthAnimation = new ValueAnimator();
+        widthAnimation = new ValueAnimator();
         widthAnimation.setInterpolator(new DecelerateInterpolator());
         widthAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
             @Override
@@ -119,6 +119,12 @@ public class ECPagerCardContentList extends ListView {
         widthAnimation.start();
     }
 
+    void cancelWidthAnimation() {
+        if (widthAnimation != null)
+            widthAnimation.cancel();
+        widthAnimation = null;
+    }
+
     protected final void hideListElements() {
         getContentListItemAdapter().enableZeroItemsMode();
     }
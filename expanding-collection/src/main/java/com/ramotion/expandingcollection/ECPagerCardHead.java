@@ -3,6 +3,7 @@ package com.ramotion.expandingcollection;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.view.ViewGroup;
@@ -21,13 +22,19 @@ import androidx.annotation.DrawableRes;
 public class ECPagerCardHead extends FrameLayout {
 
     private ImageView headBackgroundImageView;
+    private BitmapWorkerExecutor.Job headImageJob;
+    // incremented whenever image changes, decodes of older images are dropped
+    private int headImageGeneration;
+    private ValueAnimator heightAnimation;
 
     public ECPagerCardHead(Context context) {
         super(context);
+        MainThreadGuard.init(context);
     }
 
     public ECPagerCardHead(Context context, AttributeSet attrs) {
         super(context, attrs);
+        MainThreadGuard.init(context);
     }
 
     @Override
@@ -41,20 +48,72 @@ public class ECPagerCardHead extends FrameLayout {
     }
 
     protected void setHeadImageDrawable(Drawable headImageDrawable) {
+        cancelHeadImageJob();
         if (this.headBackgroundImageView != null)
             this.headBackgroundImageView.setImageDrawable(headImageDrawable);
     }
 
+    /**
+     * Decode resource sampled to head size. In async mode of {@link MainThreadGuard} image is decoded
+     * by {@link BitmapWorkerExecutor} and head stays empty until it's ready.
+     */
     protected void setHeadImageDrawable(@DrawableRes int headImageDrawableRes) {
-        if (this.headBackgroundImageView != null)
+        cancelHeadImageJob();
+        if (this.headBackgroundImageView == null) return;
+        if (!MainThreadGuard.isAsyncDecoding()) {
             this.headBackgroundImageView.setImageResource(headImageDrawableRes);
+            return;
+        }
+        this.headBackgroundImageView.setImageDrawable(null);
+        final int resId = headImageDrawableRes;
+        final int generation = headImageGeneration;
+        // not laid out yet, head is never wider than the screen
+        final int width = getWidth() > 0 ? getWidth() : getResources().getDisplayMetrics().widthPixels;
+        final int height = getLayoutParams() != null && getLayoutParams().height > 0 ? getLayoutParams().height : width;
+        final BitmapWorkerExecutor executor = BitmapWorkerExecutor.getInstance();
+        // heads of neighbour cards are decoded too, don't let them delay background of the visible page
+        headImageJob = executor.submit(BitmapWorkerTask.Priority.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decodeHeadImage(resId, width, height);
+                executor.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // superseded by another image meanwhile
+                        if (generation != headImageGeneration) return;
+                        headImageJob = null;
+                        if (headBackgroundImageView != null)
+                            headBackgroundImageView.setImageBitmap(bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap decodeHeadImage(@DrawableRes int resId, int width, int height) {
+        MainThreadGuard.checkNotMainThread("Head image decode of resource " + resId);
+        BitmapFactoryOptions options = new BitmapFactoryOptions();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(getResources(), resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inSampleSize = BitmapFactoryOptions.calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeResource(getResources(), resId, options);
     }
 
     protected void setHeadImageBitmap(Bitmap headImageBitmap) {
+        cancelHeadImageJob();
         if (this.headBackgroundImageView != null)
             this.headBackgroundImageView.setImageBitmap(headImageBitmap);
     }
 
+    private void cancelHeadImageJob() {
+        headImageGeneration++;
+        if (headImageJob != null)
+            headImageJob.cancel();
+        headImageJob = null;
+    }
+
     protected void animateHeight(int targetHeight, int duration, int delay) {
         final ViewGroup.LayoutParams cardHeaderLayoutParams = this.getLayoutParams();
 
@@ -73,10 +132,16 @@ public class ECPagerCardHead extends FrameLayout {
         cardHeadHeightAnimation.setDuration(duration);
         cardHeadHeightAnimation.setStartDelay(delay);
         cardHeadHeightAnimation.start();
+        heightAnimation = cardHeadHeightAnimation;
+    }
+
+    void cancelHeightAnimation() {
+        if (heightAnimation != null)
+            heightAnimation.cancel();
+        heightAnimation = null;
     }
 
     protected void setHeight(int height) {
         this.getLayoutParams().height = height;
     }
-
 }
@@ -3,8 +3,11 @@ package com.ramotion.expandingcollection;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.DataSetObserver;
 import android.graphics.Point;
 import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.MotionEvent;
@@ -15,6 +18,7 @@ import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
 
 import java.util.List;
+import java.util.Objects;
 
 import androidx.viewpager.widget.ViewPager;
 import ramotion.com.expandingcollection.R;
@@ -23,12 +27,49 @@ import ramotion.com.expandingcollection.R;
  * Root PagerView element. Wraps all logic, animations and behavior.
  */
 public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeListener {
-    private ECPager pager;
+    private ECCardPager pager;
+    private PagerEngine pagerEngine = PagerEngine.VIEW_PAGER;
     private ECBackgroundSwitcherView attachedImageSwitcher;
+    private ECParallaxBackgroundView attachedParallaxBackground;
     private OnCardSelectedListener onCardSelectedListener;
 
     private boolean needsRedraw;
+    // direction of the last page change, cards are prefetched in this direction first
+    private int pagingDirection = 1;
+    private boolean cardPrefetchScheduled;
+    private OffscreenPagePolicy offscreenPagePolicy;
+    // data of card whose background is shown, backgrounds are refreshed when adapter changes it
+    private ECCardData backgroundCardData;
+    private final DataSetObserver cardDataObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            // observers are notified before pager, so wait for it to move to the new current position
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    int position = pager.getCurrentPosition();
+                    if (pager.getPagerViewAdapter() == null || position >= pager.getPagerViewAdapter().getCount()) return;
+                    ECCardData data = pager.getDataFromAdapterDataset(position);
+                    if (!hasSameBackground(data, backgroundCardData)) {
+                        refreshBackgrounds();
+                    } else {
+                        backgroundCardData = data;
+                        // cards may have moved, parallax view keeps backgrounds by position
+                        if (attachedParallaxBackground != null)
+                            attachedParallaxBackground.showPage(pager, position);
+                    }
+                }
+            });
+        }
+    };
+    // observer is dropped while view is detached, it's registered again on attach
+    private boolean cardDataObserverRegistered;
     private int nextTopMargin = 0;
+    // margin is toggled to expanded value, margin to go back to is in nextTopMargin
+    private boolean topMarginToggled;
+    private int toggledTopMargin;
+    private ValueAnimator marginAnimation;
+    private ValueAnimator progressAnimation;
 
     private Point center = new Point();
     private Point initialTouch = new Point();
@@ -60,6 +101,7 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
             this.cardWidth = array.getDimensionPixelSize(R.styleable.ExpandingCollection_cardWidth, 500);
             this.cardHeight = array.getDimensionPixelSize(R.styleable.ExpandingCollection_cardHeight, 550);
             this.cardHeaderExpandedHeight = array.getDimensionPixelSize(R.styleable.ExpandingCollection_cardHeaderHeightExpanded, 450);
+            this.pagerEngine = PagerEngine.values()[array.getInt(R.styleable.ExpandingCollection_pagerEngine, 0)];
         } finally {
             array.recycle();
         }
@@ -69,20 +111,104 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
         setClipChildren(false);
         setClipToPadding(false);
 
-        pager = new ECPager(context);
+        addPager(context);
+        offscreenPagePolicy = new OffscreenPagePolicy(context);
+    }
+
+    private void addPager(Context context) {
+        if (pagerEngine == PagerEngine.RECYCLER_VIEW) {
+            pager = new ECRecyclerPager(context);
+        } else {
+            ECPager viewPager = new ECPager(context);
+            viewPager.setPageTransformer(false, new AlphaScalePageTransformer());
+            pager = viewPager;
+        }
 
         LayoutParams layoutParams = new LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
         layoutParams.gravity = Gravity.CENTER;
-        this.addView(pager, 0, layoutParams);
+        this.addView((View) pager, 0, layoutParams);
+    }
+
+    /**
+     * Replace card pager with one of another engine, it must be done before adapter is set.
+     */
+    public void setPagerEngine(PagerEngine pagerEngine) {
+        if (this.pagerEngine == pagerEngine) return;
+        if (pager.getPagerViewAdapter() != null)
+            throw new IllegalStateException("Pager engine must be chosen before adapter is set");
+        boolean attached = isAttachedToWindow();
+        if (offscreenPagePolicy != null && attached)
+            offscreenPagePolicy.detach();
+        removeView((View) pager);
+        this.pagerEngine = pagerEngine;
+        addPager(getContext());
+        pager.addOnPageChangeListener(this);
+        if (cardWidth != null && cardHeight != null)
+            pager.updateLayoutDimensions(cardWidth, cardHeight);
+        if (offscreenPagePolicy != null && attached)
+            offscreenPagePolicy.attach(pager);
+    }
+
+    public PagerEngine getPagerEngine() {
+        return pagerEngine;
+    }
 
-        pager.setPageTransformer(false, new AlphaScalePageTransformer());
+    ECCardPager getPager() {
+        return pager;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (offscreenPagePolicy != null)
+            offscreenPagePolicy.attach(pager);
+        if (pager.getPagerViewAdapter() != null && !cardDataObserverRegistered) {
+            pager.getPagerViewAdapter().registerDataSetObserver(cardDataObserver);
+            cardDataObserverRegistered = true;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (offscreenPagePolicy != null)
+            offscreenPagePolicy.detach();
+        // adapter, e.g. listening to ECCardDataSource, must not keep detached view
+        if (pager.getPagerViewAdapter() != null && cardDataObserverRegistered) {
+            pager.getPagerViewAdapter().unregisterDataSetObserver(cardDataObserver);
+            cardDataObserverRegistered = false;
+        }
+    }
+
+    /**
+     * @return policy that picks offscreen page limit of pager, null if limit is fixed
+     */
+    public OffscreenPagePolicy getOffscreenPagePolicy() {
+        return offscreenPagePolicy;
+    }
+
+    /**
+     * Replace policy of offscreen page limit, null keeps the current limit fixed.
+     */
+    public void setOffscreenPagePolicy(OffscreenPagePolicy offscreenPagePolicy) {
+        boolean attached = isAttachedToWindow();
+        if (this.offscreenPagePolicy != null && attached)
+            this.offscreenPagePolicy.detach();
+        this.offscreenPagePolicy = offscreenPagePolicy;
+        if (offscreenPagePolicy != null && attached)
+            offscreenPagePolicy.attach(pager);
+    }
+
+    void onCardBound(long bindNanos) {
+        if (offscreenPagePolicy != null)
+            offscreenPagePolicy.onCardBound(bindNanos);
     }
 
     @Override
     protected void onFinishInflate() {
         super.onFinishInflate();
         try {
-            pager = (ECPager) getChildAt(0);
+            pager = (ECCardPager) getChildAt(0);
             pager.addOnPageChangeListener(this);
             pager.updateLayoutDimensions(cardWidth, cardHeight);
         } catch (Exception e) {
@@ -108,7 +234,7 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
                 ev.offsetLocation(center.x - initialTouch.x, center.y - initialTouch.y);
                 break;
         }
-        return pager.dispatchTouchEvent(ev);
+        return ((View) pager).dispatchTouchEvent(ev);
     }
 
     @Override
@@ -116,51 +242,98 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
         //Force the container to redraw on scrolling.
         //Without this the outer pages render initially and then stay static
         if (needsRedraw) invalidate();
+        // start background processing while user is still dragging
+        if (attachedImageSwitcher != null && needsRedraw)
+            attachedImageSwitcher.getPrefetcher().onPageScrolled(pager, position, positionOffset);
+        if (attachedParallaxBackground != null)
+            attachedParallaxBackground.onPageScrolled(pager, position, positionOffset);
     }
 
     @Override
     public void onPageSelected(int position) {
         int oldPosition = pager.getCurrentPosition();
         pager.setCurrentPosition(position);
+        if (oldPosition != position)
+            pagingDirection = position > oldPosition ? 1 : -1;
 
         ECBackgroundSwitcherView.AnimationDirection direction = null;
-        int nextPositionPrediction = position;
         if (oldPosition < position) {
             direction = ECBackgroundSwitcherView.AnimationDirection.LEFT;
-            nextPositionPrediction++;
         } else if (oldPosition > position) {
             direction = ECBackgroundSwitcherView.AnimationDirection.RIGHT;
-            nextPositionPrediction--;
         }
 
+        ECCardData data = pager.getDataFromAdapterDataset(position);
+        // current card just moved in dataset, e.g. card before it was removed
+        boolean sameBackground = hasSameBackground(data, backgroundCardData);
+        backgroundCardData = data;
         if (attachedImageSwitcher != null) {
-            attachedImageSwitcher.setReverseDrawOrder(attachedImageSwitcher.getDisplayedChild() == 1);
-
-            // change current image from cache or reinitialize it from resource
-            BackgroundBitmapCache instance = BackgroundBitmapCache.getInstance();
-            String imageUrl = pager.getDataFromAdapterDataset(position).getBackgroundUrl();
-            Integer mainBgImageDrawableResource = pager.getDataFromAdapterDataset(position).getMainBackgroundResource();
-            if (instance.getBitmapFromBgMemCache(String.valueOf(imageUrl != null ? imageUrl : mainBgImageDrawableResource)) != null) {
-                attachedImageSwitcher.updateCurrentBackground(pager, direction);
-            } else {
-                attachedImageSwitcher.updateCurrentBackgroundAsync(pager, direction);
+            if (!sameBackground) {
+                attachedImageSwitcher.setReverseDrawOrder(attachedImageSwitcher.getDisplayedChild() == 1);
+
+                // change current image from cache or reinitialize it from resource
+                if (attachedImageSwitcher.isBackgroundCached(pager, position)) {
+                    attachedImageSwitcher.updateCurrentBackground(pager, direction);
+                } else {
+                    attachedImageSwitcher.updateCurrentBackgroundAsync(pager, direction);
+                }
             }
-            // change background on next predicted position
-            attachedImageSwitcher.cacheBackgroundAtPosition(pager, nextPositionPrediction);
+            // prepare backgrounds of pages user is likely to visit next
+            attachedImageSwitcher.getPrefetcher().onPageSelected(pager, position);
         }
+        if (attachedParallaxBackground != null)
+            attachedParallaxBackground.onPageSelected(pager, position);
         if (onCardSelectedListener != null)
-            onCardSelectedListener.cardSelected(position, oldPosition, pager.getAdapter().getCount());
+            onCardSelectedListener.cardSelected(position, oldPosition, pager.getPagerViewAdapter().getCount());
     }
 
     @Override
     public void onPageScrollStateChanged(int state) {
         needsRedraw = (state != ViewPager.SCROLL_STATE_IDLE);
+        if (attachedImageSwitcher != null)
+            attachedImageSwitcher.setPageSettled(!needsRedraw);
+        if (attachedParallaxBackground != null)
+            attachedParallaxBackground.setPageSettled(!needsRedraw);
+        if (!needsRedraw && attachedImageSwitcher != null)
+            attachedImageSwitcher.getPrefetcher().onScrollIdle();
+        if (!needsRedraw && attachedParallaxBackground != null)
+            attachedParallaxBackground.onScrollIdle();
+        if (offscreenPagePolicy != null)
+            offscreenPagePolicy.setPagerIdle(!needsRedraw);
+        if (!needsRedraw)
+            scheduleCardPrefetch();
+    }
+
+    /**
+     * Create cards just outside of pager's offscreen window while main thread is idle, one card per idle pass,
+     * so the next swipe takes a ready card instead of inflating and binding it during the scroll.
+     */
+    private void scheduleCardPrefetch() {
+        // RecyclerView engine prefetches cards itself
+        if (cardPrefetchScheduled || pagerEngine != PagerEngine.VIEW_PAGER) return;
+        cardPrefetchScheduled = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            private int step;
+
+            @Override
+            public boolean queueIdle() {
+                if (needsRedraw || pager.getPagerViewAdapter() == null || step > 1) {
+                    cardPrefetchScheduled = false;
+                    return false;
+                }
+                int distance = pager.getOffscreenPageLimit() + 1;
+                int direction = step == 0 ? pagingDirection : -pagingDirection;
+                pager.getPagerViewAdapter().prefetchCard(ECPagerView.this, pager.getCurrentPosition() + direction * distance);
+                step++;
+                return true;
+            }
+        });
     }
 
     protected void toggleTopMargin(int duration, int delay) {
         final RelativeLayout.LayoutParams containerLayoutParams = (RelativeLayout.LayoutParams) this.getLayoutParams();
         int currentTopMargin = containerLayoutParams.topMargin;
-        ValueAnimator marginAnimation = new ValueAnimator();
+        marginAnimation = new ValueAnimator();
         marginAnimation.setInterpolator(new DecelerateInterpolator());
         marginAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
             @Override
@@ -173,9 +346,62 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
         marginAnimation.setDuration(duration);
         marginAnimation.setStartDelay(delay);
         marginAnimation.start();
+        toggledTopMargin = nextTopMargin;
+        topMarginToggled = !topMarginToggled;
         nextTopMargin = currentTopMargin;
     }
 
+    /**
+     * Animate background effect of expanding card, see {@link ExpandBackgroundEffect}.
+     *
+     * @param targetProgress 1 for expanded card, 0 for collapsed one
+     */
+    protected void animateExpandProgress(float targetProgress, int duration, int delay) {
+        final ExpandBackgroundEffect effect = attachedImageSwitcher != null ? attachedImageSwitcher.getExpandEffect()
+                : attachedParallaxBackground != null ? attachedParallaxBackground.getExpandEffect() : null;
+        if (effect == null || effect.getMode() == ExpandBackgroundEffect.Mode.NONE) return;
+        progressAnimation = ValueAnimator.ofFloat(effect.getProgress(), targetProgress);
+        progressAnimation.setInterpolator(new DecelerateInterpolator());
+        progressAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                float progress = (float) animation.getAnimatedValue();
+                if (attachedImageSwitcher != null)
+                    attachedImageSwitcher.setExpandProgress(progress);
+                if (attachedParallaxBackground != null)
+                    attachedParallaxBackground.setExpandProgress(progress);
+            }
+        });
+        progressAnimation.setDuration(duration);
+        progressAnimation.setStartDelay(delay);
+        progressAnimation.start();
+    }
+
+    /**
+     * Return pager to collapsed state at once, used when expanded or expanding card is removed from dataset,
+     * there is no card left to animate collapse of.
+     */
+    void collapseWithoutAnimation() {
+        pager.collapseWithoutAnimation(getCardWidth(), getCardHeight());
+        if (marginAnimation != null)
+            marginAnimation.cancel();
+        marginAnimation = null;
+        if (topMarginToggled) {
+            RelativeLayout.LayoutParams containerLayoutParams = (RelativeLayout.LayoutParams) this.getLayoutParams();
+            containerLayoutParams.topMargin = nextTopMargin;
+            nextTopMargin = toggledTopMargin;
+            topMarginToggled = false;
+            setLayoutParams(containerLayoutParams);
+        }
+        if (progressAnimation != null)
+            progressAnimation.cancel();
+        progressAnimation = null;
+        if (attachedImageSwitcher != null)
+            attachedImageSwitcher.setExpandProgress(0f);
+        if (attachedParallaxBackground != null)
+            attachedParallaxBackground.setExpandProgress(0f);
+    }
+
     /**
      * Attach {@link ECBackgroundSwitcherView} element to pager view
      *
@@ -184,26 +410,71 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
     public void setBackgroundSwitcherView(ECBackgroundSwitcherView imageSwitcher) {
         this.attachedImageSwitcher = imageSwitcher;
         if (imageSwitcher == null) return;
-        ECPagerViewAdapter adapter = (ECPagerViewAdapter) this.pager.getAdapter();
+        ECPagerViewAdapter adapter = this.pager.getPagerViewAdapter();
         if (adapter != null && adapter.getDataset() != null && adapter.getDataset().size() > 1) {
             attachedImageSwitcher.updateCurrentBackground(pager, null);
+            attachedImageSwitcher.getPrefetcher().updateWindow(pager, pager.getCurrentPosition());
         }
     }
 
+    /**
+     * Attach {@link ECParallaxBackgroundView} element to pager view, it can be used instead of
+     * {@link ECBackgroundSwitcherView} to move backgrounds together with pages
+     *
+     * @param parallaxBackground already inflated {@link ECParallaxBackgroundView} element
+     */
+    public void setParallaxBackgroundView(ECParallaxBackgroundView parallaxBackground) {
+        this.attachedParallaxBackground = parallaxBackground;
+        if (parallaxBackground == null) return;
+        ECPagerViewAdapter adapter = this.pager.getPagerViewAdapter();
+        if (adapter != null && adapter.getDataset() != null && !adapter.getDataset().isEmpty())
+            parallaxBackground.showPage(pager, pager.getCurrentPosition());
+    }
+
+    private static boolean hasSameBackground(ECCardData data, ECCardData otherData) {
+        return data != null && otherData != null
+                && Objects.equals(data.getMainBackgroundResource(), otherData.getMainBackgroundResource())
+                && Objects.equals(data.getBackgroundUrl(), otherData.getBackgroundUrl());
+    }
+
+    /**
+     * Current card got new data, e.g. its page was loaded by {@link ECCardDataSource}.
+     */
+    private void refreshBackgrounds() {
+        backgroundCardData = pager.getDataFromAdapterDataset(pager.getCurrentPosition());
+        if (attachedImageSwitcher != null) {
+            attachedImageSwitcher.updateCurrentBackground(pager, null);
+            attachedImageSwitcher.getPrefetcher().updateWindow(pager, pager.getCurrentPosition());
+        }
+        if (attachedParallaxBackground != null)
+            attachedParallaxBackground.showPage(pager, pager.getCurrentPosition());
+    }
+
     /**
      * Set {@link ECPagerViewAdapter} to pager
      *
      * @param adapter implementation of {@link ECPagerViewAdapter}
      */
     public void setPagerViewAdapter(ECPagerViewAdapter adapter) {
-        this.pager.setAdapter(adapter);
+        if (pager.getPagerViewAdapter() != null && cardDataObserverRegistered)
+            pager.getPagerViewAdapter().unregisterDataSetObserver(cardDataObserver);
+        cardDataObserverRegistered = false;
+        this.pager.setPagerViewAdapter(adapter);
         if (adapter == null) return;
+        adapter.registerDataSetObserver(cardDataObserver);
+        cardDataObserverRegistered = true;
         List<ECCardData> dataset = adapter.getDataset();
         if (dataset != null && dataset.size() > 1 && attachedImageSwitcher != null) {
             attachedImageSwitcher.updateCurrentBackground(pager, null);
+            attachedImageSwitcher.getPrefetcher().updateWindow(pager, pager.getCurrentPosition());
         }
-        if (pager.getAdapter() != null && onCardSelectedListener != null)
-            onCardSelectedListener.cardSelected(pager.getCurrentPosition(), pager.getCurrentPosition(), pager.getAdapter().getCount());
+        if (dataset != null && !dataset.isEmpty() && attachedParallaxBackground != null)
+            attachedParallaxBackground.showPage(pager, pager.getCurrentPosition());
+        if (dataset != null && !dataset.isEmpty())
+            backgroundCardData = pager.getDataFromAdapterDataset(pager.getCurrentPosition());
+        scheduleCardPrefetch();
+        if (pager.getPagerViewAdapter() != null && onCardSelectedListener != null)
+            onCardSelectedListener.cardSelected(pager.getCurrentPosition(), pager.getCurrentPosition(), pager.getPagerViewAdapter().getCount());
     }
 
     /**
@@ -228,8 +499,8 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
     public void setOnCardSelectedListener(OnCardSelectedListener listener) {
         this.onCardSelectedListener = listener;
         if (listener == null) return;
-        if (pager.getAdapter() != null)
-            onCardSelectedListener.cardSelected(pager.getCurrentPosition(), pager.getCurrentPosition(), pager.getAdapter().getCount());
+        if (pager.getPagerViewAdapter() != null)
+            onCardSelectedListener.cardSelected(pager.getCurrentPosition(), pager.getCurrentPosition(), pager.getPagerViewAdapter().getCount());
 
     }
 
@@ -272,6 +543,21 @@ public class ECPagerView extends FrameLayout implements ViewPager.OnPageChangeLi
         return pager.toggle();
     }
 
+    /**
+     * Implementation of card pager, chosen with pagerEngine attribute or {@link #setPagerEngine(PagerEngine)}.
+     */
+    public enum PagerEngine {
+        /**
+         * {@link ECPager} on ViewPager, every page in offscreen window is an attached card.
+         */
+        VIEW_PAGER,
+        /**
+         * {@link ECRecyclerPager} on ViewPager2, cards are RecyclerView items recycled by view type
+         * and prefetched between frames.
+         */
+        RECYCLER_VIEW
+    }
+
     /**
      * Listener will be notified when pager select a new card
      */
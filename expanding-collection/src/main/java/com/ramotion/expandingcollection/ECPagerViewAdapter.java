@@ -1,13 +1,19 @@
 package com.ramotion.expandingcollection;
 
 import android.content.Context;
+import android.database.DataSetObserver;
 import android.graphics.BitmapFactory;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ListView;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.viewpager.widget.PagerAdapter;
@@ -20,36 +26,361 @@ import static android.R.attr.bitmap;
  * to cards in {@link ECPagerView}.
  */
 public abstract class ECPagerViewAdapter extends PagerAdapter {
+    // view type of cards shown for not loaded data of ECCardDataSource
+    static final int PLACEHOLDER_VIEW_TYPE = Integer.MIN_VALUE;
 
     private ECPagerCard activeCard;
     private List<ECCardData> dataset;
     private LayoutInflater inflaterService;
 
+    // cards of destroyed pages by view type, rebound to new data instead of inflating new cards
+    private final SparseArray<ArrayDeque<ECPagerCard>> recycledCards = new SparseArray<>();
+    private int maxRecycledCards = 3;
+    // cards created and bound ahead of time by position, taken as is when pager reaches them
+    private final SparseArray<ECPagerCard> prefetchedCards = new SparseArray<>();
+    private int maxPrefetchedCards = 2;
+    // cleared once rebindCard isn't implemented, cards are inflated for every page then
+    private boolean recyclingSupported = true;
+    private int inflatedCardsCount;
+
+    private ECCardPager pager;
+    // positions of card ids in dataset, built on demand for notifyDataSetChanged or provided by submitted diff
+    private Map<Object, Integer> positions;
+    private Set<Object> changedIds;
+    private BitmapWorkerExecutor.Job diffJob;
+    // dataset of the latest submit, diffs of older ones are dropped
+    private List<ECCardData> submittedDataset;
+
+    // listens to data source only while adapter is observed, so data source doesn't keep detached adapter
+    private final ECCardDataSource.OnRangeChangedListener rangeChangedListener = new ECCardDataSource.OnRangeChangedListener() {
+        @Override
+        public void onRangeChanged(int fromPosition, int count) {
+            // placeholder cards of loaded range are replaced, see getItemPosition
+            notifyDataSetChanged();
+        }
+    };
+    private int dataSetObserversCount;
+    private boolean rangeChangesMissed;
+
     public ECPagerViewAdapter(Context applicationContext, List<ECCardData> dataset) {
         this.inflaterService = (LayoutInflater) applicationContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         this.dataset = dataset;
     }
 
+    @Override
+    public void registerDataSetObserver(@NonNull DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        if (dataSetObserversCount++ > 0 || !(dataset instanceof ECCardDataSource)) return;
+        ((ECCardDataSource) dataset).addOnRangeChangedListener(rangeChangedListener);
+        // pages might be loaded while nobody listened
+        if (rangeChangesMissed) {
+            rangeChangesMissed = false;
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public void unregisterDataSetObserver(@NonNull DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        if (--dataSetObserversCount > 0 || !(dataset instanceof ECCardDataSource)) return;
+        ((ECCardDataSource) dataset).removeOnRangeChangedListener(rangeChangedListener);
+        rangeChangesMissed = true;
+    }
+
     @Override
     public Object instantiateItem(ViewGroup container, int position) {
         final ECPager pager = (ECPager) container;
-        final ECPagerCard pagerCard = (ECPagerCard) inflaterService.inflate(R.layout.ec_pager_card, null);
+        this.pager = pager;
         final ECPagerView pagerContainer = (ECPagerView) pager.getParent();
 
+        ECPagerCard pagerCard = prefetchedCards.get(position);
+        if (pagerCard != null) {
+            prefetchedCards.remove(position);
+            if (pagerCard.viewType != resolveViewType(position, dataset.get(position))) {
+                recycleCard(pagerCard);
+                pagerCard = null;
+            }
+        }
+        if (pagerCard == null)
+            pagerCard = obtainCard(pagerContainer, position);
+
+        pager.addView(pagerCard, pagerContainer.getCardWidth(), pagerContainer.getCardHeight());
+        return pagerCard;
+    }
+
+
+    /**
+     * Take recycled card of the position's view type and rebind it, or inflate a new one.
+     */
+    private ECPagerCard obtainCard(ECPagerView pagerContainer, int position) {
+        long start = System.nanoTime();
+        ECPagerCard pagerCard = createOrRebindCard(pagerContainer, position);
+        pagerContainer.onCardBound(System.nanoTime() - start);
+        return pagerCard;
+    }
+
+    private ECPagerCard createOrRebindCard(ECPagerView pagerContainer, int position) {
+        ECCardData data = dataset.get(position);
+        int viewType = resolveViewType(position, data);
+        ArrayDeque<ECPagerCard> pool = recycledCards.get(viewType);
+        ECPagerCard pagerCard = pool != null ? pool.poll() : null;
+        if (pagerCard != null) {
+            pagerCard.position = position;
+            pagerCard.data = data;
+            ECPagerCardContentList ecPagerCardContentList = pagerCard.getEcPagerCardContentList();
+            ECPagerCardHead headView = ecPagerCardContentList.getHeadView();
+            headView.setHeight(pagerContainer.getCardHeight());
+            if (viewType == PLACEHOLDER_VIEW_TYPE) {
+                bindPlaceholderCard(headView, ecPagerCardContentList, position);
+                return pagerCard;
+            }
+            if (rebindCard(headView, ecPagerCardContentList, data))
+                return pagerCard;
+            recyclingSupported = false;
+            recycledCards.clear();
+        }
+        pagerCard = createCard(viewType);
+        pagerCard.position = position;
+        pagerCard.data = data;
+
         ECPagerCardContentList ecPagerCardContentList = pagerCard.getEcPagerCardContentList();
         ECPagerCardHead headView = ecPagerCardContentList.getHeadView();
 
         headView.setHeight(pagerContainer.getCardHeight());
 
-        instantiateCard(inflaterService, headView, ecPagerCardContentList, dataset.get(position));
+        if (viewType == PLACEHOLDER_VIEW_TYPE)
+            bindPlaceholderCard(headView, ecPagerCardContentList, position);
+        else
+            instantiateCard(inflaterService, headView, ecPagerCardContentList, data);
+        return pagerCard;
+    }
 
-        pager.addView(pagerCard, pagerContainer.getCardWidth(), pagerContainer.getCardHeight());
+    /**
+     * Inflate card that isn't bound to any data yet.
+     */
+    ECPagerCard createCard(int viewType) {
+        ECPagerCard pagerCard = (ECPagerCard) inflaterService.inflate(R.layout.ec_pager_card, null);
+        pagerCard.viewType = viewType;
+        inflatedCardsCount++;
         return pagerCard;
     }
 
+    /**
+     * Bind card of {@link ECRecyclerPager} to position. RecyclerView keeps cards by stable id, so card that is
+     * bound to the same data again keeps its views and expanded state, other cards are rebound or set up from scratch.
+     */
+    void bindCard(ECPagerView pagerContainer, ECPagerCard pagerCard, int position) {
+        long start = System.nanoTime();
+        ECCardData data = dataset.get(position);
+        ECCardData oldData = pagerCard.data;
+        pagerCard.position = position;
+        pagerCard.data = data;
+        if (oldData != null && pagerCard.viewType != PLACEHOLDER_VIEW_TYPE && (oldData == data
+                || CardDatasetDiff.idOf(oldData).equals(CardDatasetDiff.idOf(data)) && areCardContentsTheSame(oldData, data)))
+            return;
+
+        ECPagerCardContentList ecPagerCardContentList = pagerCard.getEcPagerCardContentList();
+        ECPagerCardHead headView = ecPagerCardContentList.getHeadView();
+        if (!pagerCard.isExpandedOrAnimating())
+            headView.setHeight(pagerContainer.getCardHeight());
+        if (pagerCard.viewType == PLACEHOLDER_VIEW_TYPE) {
+            bindPlaceholderCard(headView, ecPagerCardContentList, position);
+        } else if (oldData == null) {
+            instantiateCard(inflaterService, headView, ecPagerCardContentList, data);
+        } else if (!recyclingSupported || !rebindCard(headView, ecPagerCardContentList, data)) {
+            // RecyclerView reuses cards anyway, so card of adapter that can't rebind is set up from scratch
+            recyclingSupported = false;
+            headView.removeAllViews();
+            ecPagerCardContentList.setAdapter(null);
+            instantiateCard(inflaterService, headView, ecPagerCardContentList, data);
+        }
+        pagerContainer.onCardBound(System.nanoTime() - start);
+    }
+
+    int resolveViewType(int position, ECCardData data) {
+        return data instanceof ECCardDataSource.PlaceholderCardData ? PLACEHOLDER_VIEW_TYPE : getCardViewType(position);
+    }
+
+    /**
+     * Cards are found in changed dataset by id, so surviving cards keep their views and state and only move,
+     * removed ones are destroyed. Card with changed content is rebound in place if adapter supports rebinding.
+     */
+    @Override
+    public int getItemPosition(@NonNull Object object) {
+        ECPagerCard pagerCard = (ECPagerCard) object;
+        int newPosition;
+        if (dataset instanceof ECCardDataSource) {
+            // data source is never scanned as a whole, cards are checked at their positions only
+            if (pagerCard.position >= getCount()) return POSITION_NONE;
+            ECCardData data = dataset.get(pagerCard.position);
+            if (data instanceof ECCardDataSource.PlaceholderCardData)
+                return pagerCard.viewType == PLACEHOLDER_VIEW_TYPE ? POSITION_UNCHANGED : POSITION_NONE;
+            if (pagerCard.viewType == PLACEHOLDER_VIEW_TYPE || !CardDatasetDiff.idOf(data).equals(CardDatasetDiff.idOf(pagerCard.data)))
+                return POSITION_NONE;
+            newPosition = pagerCard.position;
+        } else {
+            if (positions == null)
+                positions = CardDatasetDiff.positionsOf(dataset);
+            Integer position = positions.get(CardDatasetDiff.idOf(pagerCard.data));
+            if (position == null) return POSITION_NONE;
+            newPosition = position;
+        }
+
+        ECCardData data = dataset.get(newPosition);
+        // card of another type has different head layout, it can be neither kept nor rebound in place
+        if (pagerCard.viewType != resolveViewType(newPosition, data)) return POSITION_NONE;
+        boolean changed = changedIds != null ? changedIds.contains(CardDatasetDiff.idOf(data))
+                : data != pagerCard.data && !areCardContentsTheSame(pagerCard.data, data);
+        if (changed) {
+            ECPagerCardContentList ecPagerCardContentList = pagerCard.getEcPagerCardContentList();
+            if (!recyclingSupported || !rebindCard(ecPagerCardContentList.getHeadView(), ecPagerCardContentList, data))
+                return POSITION_NONE;
+        }
+        pagerCard.data = data;
+        int oldPosition = pagerCard.position;
+        pagerCard.position = newPosition;
+        return newPosition == oldPosition ? POSITION_UNCHANGED : newPosition;
+    }
+
+    /**
+     * Used to find cards that kept id but need to be rebound, may be called off the main thread
+     * by {@link #submitDataset(List)}.
+     *
+     * @return true if card shows the same content for both data objects, {@link Object#equals(Object)} by default
+     */
+    public boolean areCardContentsTheSame(ECCardData oldData, ECCardData newData) {
+        return oldData.equals(newData);
+    }
+
+    /**
+     * Replace dataset with new one, difference is calculated off the main thread and only inserted, removed
+     * and moved cards are changed, with animation. Surviving cards keep their views, expanded state and backgrounds.
+     * Cards are matched by {@link ECCardData#getStableId()}. Dataset of {@link ECCardDataSource} is updated
+     * with {@link ECCardDataSource#invalidate()} instead.
+     *
+     * @param newDataset new dataset, it's used by adapter as is and must not be modified after submit
+     */
+    public void submitDataset(final List<ECCardData> newDataset) {
+        if (dataset instanceof ECCardDataSource || newDataset instanceof ECCardDataSource)
+            throw new IllegalStateException("Dataset of ECCardDataSource is updated with ECCardDataSource.invalidate()");
+        if (diffJob != null)
+            diffJob.cancel();
+        final List<ECCardData> oldDataset = new ArrayList<>(dataset);
+        final BitmapWorkerExecutor executor = BitmapWorkerExecutor.getInstance();
+        submittedDataset = newDataset;
+        // below background of the visible page, cards stay usable until diff is applied
+        diffJob = executor.submit(BitmapWorkerTask.Priority.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                final CardDatasetDiff diff = CardDatasetDiff.calculate(oldDataset, newDataset, ECPagerViewAdapter.this);
+                executor.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (submittedDataset != newDataset) return;
+                        submittedDataset = null;
+                        diffJob = null;
+                        applyDiff(newDataset, diff);
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyDiff(final List<ECCardData> newDataset, final CardDatasetDiff diff) {
+        Runnable change = new Runnable() {
+            @Override
+            public void run() {
+                dataset = newDataset;
+                positions = diff.newPositions;
+                changedIds = diff.changedIds;
+                notifyDataSetChanged();
+            }
+        };
+        if (pager != null && pager.getPagerViewAdapter() == this)
+            pager.animateDatasetChange(change);
+        else
+            change.run();
+    }
+
+    /**
+     * Create and bind card of position that pager is likely to reach next, called by {@link ECPagerView}
+     * while main thread is idle. Cards of other positions are recycled, so only the nearest ones are kept.
+     */
+    void prefetchCard(ECPagerView pagerContainer, int position) {
+        if (position < 0 || position >= getCount() || prefetchedCards.get(position) != null) return;
+        while (prefetchedCards.size() >= maxPrefetchedCards) {
+            int farthest = 0;
+            for (int i = 1; i < prefetchedCards.size(); i++) {
+                if (Math.abs(prefetchedCards.keyAt(i) - position) > Math.abs(prefetchedCards.keyAt(farthest) - position))
+                    farthest = i;
+            }
+            ECPagerCard card = prefetchedCards.valueAt(farthest);
+            prefetchedCards.removeAt(farthest);
+            recycleCard(card);
+        }
+        if (maxPrefetchedCards > 0)
+            prefetchedCards.put(position, obtainCard(pagerContainer, position));
+    }
+
+    /**
+     * @param maxPrefetchedCards number of cards created ahead of pager while main thread is idle, 0 disables prefetch
+     */
+    public void setMaxPrefetchedCards(int maxPrefetchedCards) {
+        this.maxPrefetchedCards = Math.max(0, maxPrefetchedCards);
+        while (prefetchedCards.size() > this.maxPrefetchedCards) {
+            ECPagerCard card = prefetchedCards.valueAt(0);
+            prefetchedCards.removeAt(0);
+            recycleCard(card);
+        }
+    }
+
+    public int getMaxPrefetchedCards() {
+        return maxPrefetchedCards;
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        // prefetched cards are bound to old positions
+        for (int i = 0; i < prefetchedCards.size(); i++) {
+            recycleCard(prefetchedCards.valueAt(i));
+        }
+        prefetchedCards.clear();
+        super.notifyDataSetChanged();
+        // pager has matched its cards already
+        positions = null;
+        changedIds = null;
+    }
+
+    /**
+     * Cards are recycled only within the same view type, use different types for cards with different head layouts.
+     *
+     * @return view type of card at position, 0 by default
+     */
+    public int getCardViewType(int position) {
+        return 0;
+    }
 
     public abstract void instantiateCard(LayoutInflater inflaterService, ViewGroup head, ListView list, ECCardData data);
 
+    /**
+     * Set up card shown while data of position is loaded by {@link ECCardDataSource}. Card head is empty
+     * and list has no adapter by default, placeholder cards are recycled among themselves and can't be expanded.
+     */
+    public void bindPlaceholderCard(ViewGroup head, ListView list, int position) {
+    }
+
+    /**
+     * Bind card of destroyed page, previously set up by {@link #instantiateCard}, to data of another page.
+     * Card is already collapsed, head and list keep views and adapter of the previous data, so just update them.
+     * Also called for shown card, possibly expanded, when its content changed in dataset.
+     * Default implementation returns false and every page gets a newly inflated card.
+     *
+     * @return true if card is rebound, false if recycling isn't supported by this adapter
+     */
+    public boolean rebindCard(ViewGroup head, ListView list, ECCardData data) {
+        return false;
+    }
+
     @Override
     public void finishUpdate(@NonNull ViewGroup container) {
         super.finishUpdate(container);
@@ -57,13 +388,69 @@ public abstract class ECPagerViewAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
-        container.removeView((View) object);
+        ECPagerCard pagerCard = (ECPagerCard) object;
+        container.removeView(pagerCard);
+        onCardRemoved(container.getParent() instanceof ECPagerView ? (ECPagerView) container.getParent() : null, pagerCard);
+        recycleCard(pagerCard);
+    }
+
+    /**
+     * Card left the pager, it's recycled by caller.
+     */
+    void onCardRemoved(ECPagerView pagerContainer, ECPagerCard pagerCard) {
+        if (activeCard != pagerCard) return;
+        // expanded card removed from dataset, nothing is left to collapse pager with animation
+        if (pagerCard.isExpandedOrAnimating() && pagerContainer != null)
+            pagerContainer.collapseWithoutAnimation();
+        activeCard = null;
+    }
+
+    void setPager(ECCardPager pager) {
+        this.pager = pager;
+    }
+
+    private void recycleCard(ECPagerCard pagerCard) {
+        if (!recyclingSupported) return;
+        ArrayDeque<ECPagerCard> pool = recycledCards.get(pagerCard.viewType);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            recycledCards.put(pagerCard.viewType, pool);
+        }
+        if (pool.size() < maxRecycledCards) {
+            pagerCard.resetToCollapsed();
+            pool.push(pagerCard);
+        }
+    }
+
+    /**
+     * @param maxRecycledCards number of cards of destroyed pages kept for {@link #rebindCard}, per view type
+     */
+    public void setMaxRecycledCards(int maxRecycledCards) {
+        this.maxRecycledCards = Math.max(0, maxRecycledCards);
+        for (int i = 0; i < recycledCards.size(); i++) {
+            ArrayDeque<ECPagerCard> pool = recycledCards.valueAt(i);
+            while (pool.size() > this.maxRecycledCards)
+                pool.pop();
+        }
+    }
+
+    public int getMaxRecycledCards() {
+        return maxRecycledCards;
+    }
+
+    /**
+     * @return number of cards inflated by this adapter, stays constant while cards are recycled
+     */
+    public int getInflatedCardsCount() {
+        return inflatedCardsCount;
     }
 
     @Override
     public void setPrimaryItem(ViewGroup container, int position, Object object) {
         super.setPrimaryItem(container, position, object);
         activeCard = (ECPagerCard) object;
+        if (dataset instanceof ECCardDataSource)
+            ((ECCardDataSource) dataset).setCurrentPosition(position);
     }
 
     public ECPagerCard getActiveCard() {
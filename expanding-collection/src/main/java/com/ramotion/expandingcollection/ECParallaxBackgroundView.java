@@ -0,0 +1,326 @@
+package com.ramotion.expandingcollection;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.View;
+
+import ramotion.com.expandingcollection.R;
+
+/**
+ * Single view alternative to {@link ECBackgroundSwitcherView}. Draws background of current page and the page
+ * user scrolls to directly, with parallax offset and crossfade computed from pager scroll offset every frame.
+ * Only visible part of every bitmap is drawn and there are no animation objects or extra image views.
+ * Attach it with {@link ECPagerView#setParallaxBackgroundView(ECParallaxBackgroundView)}.
+ */
+public class ECParallaxBackgroundView extends View implements BackgroundPrefetcher.Host {
+    // values of backgroundStorage attribute
+    private static final int STORAGE_COMPACT = 1;
+
+    private int parallaxGapPercent = 12;
+    private int downScale = 8;
+    private int blurRadius = 6;
+    private Bitmap.Config backgroundConfig = Bitmap.Config.ARGB_8888;
+    private BlurEngine blurEngine = new BlurKitBlurEngine();
+    private String cacheNamespace = BackgroundKey.DEFAULT_NAMESPACE;
+
+    private final BackgroundPrefetcher prefetcher = new BackgroundPrefetcher(this);
+    private final ExpandBackgroundEffect expandEffect = new ExpandBackgroundEffect(this);
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    private final Rect srcRect = new Rect();
+    private final Rect dstRect = new Rect();
+
+    // backgrounds of visible pages by position
+    private final SparseArray<Bitmap> bitmaps = new SparseArray<>();
+    private final SparseArray<BackgroundBitmapLoader.Request> requests = new SparseArray<>();
+    // shown while background of current page isn't ready yet
+    private Bitmap fallbackBitmap;
+
+    private ECCardPager pager;
+    private int scrollPosition;
+    private float scrollOffset;
+    private boolean pageSettled = true;
+
+    public ECParallaxBackgroundView(Context context) {
+        super(context);
+        init(context, null);
+    }
+
+    public ECParallaxBackgroundView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context, attrs);
+    }
+
+    private void init(Context context, AttributeSet attrs) {
+        MainThreadGuard.init(context);
+        if (attrs == null) return;
+        TypedArray array = context.getTheme().obtainStyledAttributes(attrs, R.styleable.ExpandingCollection, 0, 0);
+        try {
+            downScale = array.getInt(R.styleable.ExpandingCollection_downScale, downScale);
+            blurRadius = array.getDimensionPixelSize(R.styleable.ExpandingCollection_blurRadius, blurRadius);
+            if (array.getInt(R.styleable.ExpandingCollection_backgroundStorage, 0) == STORAGE_COMPACT)
+                backgroundConfig = Bitmap.Config.RGB_565;
+        } finally {
+            array.recycle();
+        }
+    }
+
+    /**
+     * @see ECBackgroundSwitcherView#setBlurEngine(BlurEngine)
+     */
+    public void setBlurEngine(BlurEngine blurEngine) {
+        this.blurEngine = blurEngine;
+        prefetcher.invalidateKeys();
+    }
+
+    @Override
+    public BlurEngine getBlurEngine() {
+        return blurEngine;
+    }
+
+    /**
+     * @see ECBackgroundSwitcherView#setCacheNamespace(String)
+     */
+    public void setCacheNamespace(String cacheNamespace) {
+        this.cacheNamespace = cacheNamespace != null ? cacheNamespace : BackgroundKey.DEFAULT_NAMESPACE;
+        prefetcher.invalidateKeys();
+    }
+
+    public String getCacheNamespace() {
+        return cacheNamespace;
+    }
+
+    /**
+     * @see ECBackgroundSwitcherView#setBackgroundConfig(Bitmap.Config)
+     */
+    public void setBackgroundConfig(Bitmap.Config backgroundConfig) {
+        this.backgroundConfig = backgroundConfig != null ? backgroundConfig : Bitmap.Config.ARGB_8888;
+        prefetcher.invalidateKeys();
+    }
+
+    public Bitmap.Config getBackgroundConfig() {
+        return backgroundConfig;
+    }
+
+    /**
+     * @param parallaxGapPercent background shift between neighbour pages in percents of view width
+     */
+    public void setParallaxGapPercent(int parallaxGapPercent) {
+        this.parallaxGapPercent = Math.max(0, parallaxGapPercent);
+        invalidate();
+    }
+
+    public int getParallaxGapPercent() {
+        return parallaxGapPercent;
+    }
+
+    public BackgroundPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * @see ECBackgroundSwitcherView#getExpandEffect()
+     */
+    public ExpandBackgroundEffect getExpandEffect() {
+        return expandEffect;
+    }
+
+    void setPageSettled(boolean pageSettled) {
+        this.pageSettled = pageSettled;
+        if (pageSettled)
+            expandEffect.prepare(bitmaps.get(scrollPosition), blurEngine);
+    }
+
+    void setExpandProgress(float progress) {
+        expandEffect.setProgress(progress);
+    }
+
+    @Override
+    public BackgroundKey getBackgroundKey(ECCardPager pager, int position) {
+        return BackgroundKey.forCard(cacheNamespace, pager.getDataFromAdapterDataset(position), downScale, blurRadius, blurEngine, backgroundConfig);
+    }
+
+    /**
+     * Show background of page, e.g. when adapter is set. Backgrounds of previously shown pages are reloaded,
+     * so it's also used when card data changed.
+     */
+    public void showPage(ECCardPager pager, int position) {
+        for (int i = bitmaps.size() - 1; i >= 0; i--) {
+            releasePage(bitmaps.keyAt(i));
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            requests.valueAt(i).cancel();
+        }
+        requests.clear();
+        onPageScrolled(pager, position, 0f);
+        prefetcher.updateWindow(pager, position);
+    }
+
+    void onPageSelected(ECCardPager pager, int position) {
+        prefetcher.onPageSelected(pager, position);
+    }
+
+    void onScrollIdle() {
+        prefetcher.onScrollIdle();
+    }
+
+    /**
+     * Move backgrounds with pager, called by {@link ECPagerView} every scroll frame.
+     */
+    void onPageScrolled(ECCardPager pager, int position, float positionOffset) {
+        this.pager = pager;
+        this.scrollPosition = position;
+        this.scrollOffset = positionOffset;
+        int count = pager.getPagerViewAdapter() != null ? pager.getPagerViewAdapter().getCount() : 0;
+        int last = positionOffset > 0 ? position + 1 : position;
+        // drop pages that aren't visible anymore
+        for (int i = bitmaps.size() - 1; i >= 0; i--) {
+            int page = bitmaps.keyAt(i);
+            if (page < position || page > last)
+                releasePage(page);
+        }
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            int page = requests.keyAt(i);
+            if (page < position || page > last) {
+                requests.valueAt(i).cancel();
+                requests.removeAt(i);
+            }
+        }
+        for (int page = position; page <= last && page < count; page++) {
+            ensurePage(pager, page);
+        }
+        prefetcher.onPageScrolled(pager, position, positionOffset);
+        invalidate();
+    }
+
+    private void ensurePage(ECCardPager pager, final int position) {
+        if (bitmaps.get(position) != null || requests.get(position) != null) return;
+        BackgroundKey key = prefetcher.getKey(pager, position);
+        if (!key.hasSource()) return;
+        Bitmap cached = BackgroundBitmapCache.getInstance().retainBitmapFromBgMemCache(key);
+        if (cached != null) {
+            BackgroundStats.getInstance().onCachedBackgroundShown(key);
+            setPageBitmap(position, cached);
+            BitmapPool.getInstance().release(cached);
+            return;
+        }
+        Bitmap placeholder = ECBackgroundSwitcherView.decodePlaceholder(pager.getDataFromAdapterDataset(position).getBackgroundPlaceholder(),
+                ECBackgroundSwitcherView.PLACEHOLDER_WIDTH, getPlaceholderHeight());
+        if (placeholder != null)
+            setPageBitmap(position, placeholder);
+        requests.put(position, BackgroundBitmapLoader.getInstance().load(getContext(), key, blurEngine, BitmapWorkerTask.Priority.CURRENT,
+                new BackgroundBitmapLoader.Callback() {
+                    @Override
+                    public void onBitmapLoaded(Bitmap bitmap) {
+                        requests.remove(position);
+                        if (bitmap != null)
+                            setPageBitmap(position, bitmap);
+                        invalidate();
+                    }
+                }));
+    }
+
+    private int getPlaceholderHeight() {
+        int width = getWidth() * (100 + 2 * parallaxGapPercent) / 100;
+        return width > 0 && getHeight() > 0 ? Math.max(1, ECBackgroundSwitcherView.PLACEHOLDER_WIDTH * getHeight() / width)
+                : ECBackgroundSwitcherView.PLACEHOLDER_WIDTH;
+    }
+
+    private void setPageBitmap(int position, Bitmap bitmap) {
+        Bitmap previous = bitmaps.get(position);
+        if (previous == bitmap) return;
+        // every page and fallback holds own reference
+        BitmapPool pool = BitmapPool.getInstance();
+        pool.retain(bitmap);
+        bitmaps.put(position, bitmap);
+        pool.release(previous);
+        if (pageSettled && position == scrollPosition)
+            expandEffect.prepare(bitmap, blurEngine);
+    }
+
+    private void releasePage(int position) {
+        Bitmap bitmap = bitmaps.get(position);
+        bitmaps.remove(position);
+        if (bitmap == null) return;
+        // the last left background stays as fallback until the next one is ready, reference of page goes to it
+        Bitmap previousFallback = fallbackBitmap;
+        fallbackBitmap = bitmap;
+        BitmapPool.getInstance().release(previousFallback);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (pager == null) return;
+        int gap = getWidth() * parallaxGapPercent / 100;
+        Bitmap current = bitmaps.get(scrollPosition);
+        Bitmap next = scrollOffset > 0 ? bitmaps.get(scrollPosition + 1) : null;
+
+        if (!expandEffect.coversBackground()) {
+            int alpha = expandEffect.getBackgroundAlpha();
+            Bitmap base = current != null ? current : fallbackBitmap;
+            if (base != null) {
+                drawBackground(canvas, base, current != null ? -Math.round(gap * scrollOffset) : 0, alpha);
+            }
+            if (next != null) {
+                // next page comes from the other side and fades in as it approaches
+                drawBackground(canvas, next, Math.round(gap * (1 - scrollOffset)), Math.round(alpha * scrollOffset));
+            }
+        }
+        expandEffect.draw(canvas, -gap, 0, getWidth() + gap, getHeight());
+    }
+
+    /**
+     * Draw bitmap center-cropped over view widened by parallax gap on both sides, only its visible part.
+     */
+    private void drawBackground(Canvas canvas, Bitmap bitmap, int shift, int alpha) {
+        if (bitmap.isRecycled() || alpha <= 0) return;
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        int gap = viewWidth * parallaxGapPercent / 100;
+        float scale = Math.max((viewWidth + 2f * gap) / bitmap.getWidth(), (float) viewHeight / bitmap.getHeight());
+        float left = (viewWidth - bitmap.getWidth() * scale) / 2 + shift;
+        float top = (viewHeight - bitmap.getHeight() * scale) / 2;
+
+        // map visible area back to bitmap, so no pixels are drawn off-screen
+        srcRect.set(Math.max(0, (int) Math.floor(-left / scale)), Math.max(0, (int) Math.floor(-top / scale)),
+                Math.min(bitmap.getWidth(), (int) Math.ceil((viewWidth - left) / scale)),
+                Math.min(bitmap.getHeight(), (int) Math.ceil((viewHeight - top) / scale)));
+        if (srcRect.isEmpty()) return;
+        dstRect.set(Math.round(left + srcRect.left * scale), Math.round(top + srcRect.top * scale),
+                Math.round(left + srcRect.right * scale), Math.round(top + srcRect.bottom * scale));
+        paint.setAlpha(alpha);
+        canvas.drawBitmap(bitmap, srcRect, dstRect, paint);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        BackgroundBitmapCache.getInstance().registerComponentCallbacks(getContext());
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        BackgroundBitmapCache.getInstance().unregisterComponentCallbacks(getContext());
+        prefetcher.cancelAll();
+        expandEffect.reset();
+        for (int i = 0; i < requests.size(); i++) {
+            requests.valueAt(i).cancel();
+        }
+        requests.clear();
+        // detached view doesn't draw, its bitmaps go back to pool and are reloaded on next page change
+        BitmapPool pool = BitmapPool.getInstance();
+        for (int i = 0; i < bitmaps.size(); i++) {
+            pool.release(bitmaps.valueAt(i));
+        }
+        bitmaps.clear();
+        pool.release(fallbackBitmap);
+        fallbackBitmap = null;
+    }
+}
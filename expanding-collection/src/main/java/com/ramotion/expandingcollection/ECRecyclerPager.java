@@ -0,0 +1,302 @@
+package com.ramotion.expandingcollection;
+
+import android.animation.AnimatorListenerAdapter;
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.viewpager.widget.ViewPager;
+import androidx.viewpager2.widget.ViewPager2;
+
+/**
+ * Card pager built on ViewPager2, chosen with {@link ECPagerView.PagerEngine#RECYCLER_VIEW}. Cards are RecyclerView items:
+ * they're kept in pools by view type of {@link ECPagerViewAdapter#getCardViewType(int)}, the next card is prefetched
+ * by RecyclerView between frames and cards follow their stable ids on dataset change. Adapter contract,
+ * look of neighbour cards and expand animations are the same as of {@link ECPager}.
+ * ViewPager2 can't be extended, so this pager wraps it and is sized the same way as {@link ECPager}.
+ */
+public class ECRecyclerPager extends FrameLayout implements ECCardPager {
+    private final ViewPager2 viewPager;
+    private final PagerSizeAnimator sizeAnimator = new PagerSizeAnimator(this);
+    private final List<ViewPager.OnPageChangeListener> onPageChangeListeners = new ArrayList<>();
+
+    private ECPagerViewAdapter adapter;
+    private CardsAdapter cardsAdapter;
+    private int currentPosition;
+    // changes of adapter are followed only while pager is attached, like by ECPagerView
+    private boolean adapterObserved;
+    private final DataSetObserver adapterObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            if (cardsAdapter != null)
+                cardsAdapter.notifyDataSetChanged();
+        }
+    };
+
+    public ECRecyclerPager(Context context) {
+        super(context);
+        viewPager = new ViewPager2(context);
+        init();
+    }
+
+    public ECRecyclerPager(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        viewPager = new ViewPager2(context);
+        init();
+    }
+
+    private void init() {
+        // neighbour cards are laid out by RecyclerView outside of the pager bounds
+        setClipChildren(false);
+        viewPager.setClipChildren(false);
+        getRecyclerView().setClipChildren(false);
+        // initial limit, adjusted at runtime by OffscreenPagePolicy of ECPagerView
+        viewPager.setOffscreenPageLimit(3);
+        viewPager.setPageTransformer(new AlphaScalePageTransformer());
+        viewPager.registerOnPageChangeCallback(new ViewPager2.OnPageChangeCallback() {
+            @Override
+            public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {
+                for (int i = 0; i < onPageChangeListeners.size(); i++) {
+                    onPageChangeListeners.get(i).onPageScrolled(position, positionOffset, positionOffsetPixels);
+                }
+            }
+
+            @Override
+            public void onPageSelected(int position) {
+                updateActiveCard(position);
+                for (int i = 0; i < onPageChangeListeners.size(); i++) {
+                    onPageChangeListeners.get(i).onPageSelected(position);
+                }
+            }
+
+            @Override
+            public void onPageScrollStateChanged(int state) {
+                // scroll states of ViewPager2 have the same values as of ViewPager
+                for (int i = 0; i < onPageChangeListeners.size(); i++) {
+                    onPageChangeListeners.get(i).onPageScrollStateChanged(state);
+                }
+            }
+        });
+        addView(viewPager, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+    }
+
+    private RecyclerView getRecyclerView() {
+        return (RecyclerView) viewPager.getChildAt(0);
+    }
+
+    private ECPagerView getPagerView() {
+        ViewParent parent = getParent();
+        return parent instanceof ECPagerView ? (ECPagerView) parent : null;
+    }
+
+    /**
+     * Make card of position active, so expand and collapse apply to it, once RecyclerView has it bound.
+     */
+    private void updateActiveCard(int position) {
+        RecyclerView.ViewHolder holder = getRecyclerView().findViewHolderForAdapterPosition(position);
+        if (adapter != null && holder != null)
+            adapter.setPrimaryItem(this, position, holder.itemView);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (adapter != null && !adapterObserved) {
+            adapter.registerDataSetObserver(adapterObserver);
+            adapterObserved = true;
+            // changes made while detached were missed
+            cardsAdapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (adapter != null && adapterObserved) {
+            adapter.unregisterDataSetObserver(adapterObserver);
+            adapterObserved = false;
+        }
+    }
+
+    @Override
+    public ECPagerViewAdapter getPagerViewAdapter() {
+        return adapter;
+    }
+
+    @Override
+    public void setPagerViewAdapter(ECPagerViewAdapter adapter) {
+        if (this.adapter != null && adapterObserved)
+            this.adapter.unregisterDataSetObserver(adapterObserver);
+        adapterObserved = false;
+        this.adapter = adapter;
+        cardsAdapter = adapter != null ? new CardsAdapter(adapter) : null;
+        viewPager.setAdapter(cardsAdapter);
+        getRecyclerView().getRecycledViewPool().clear();
+        if (adapter == null) return;
+        adapter.setPager(this);
+        if (isAttachedToWindow()) {
+            adapter.registerDataSetObserver(adapterObserver);
+            adapterObserved = true;
+        }
+    }
+
+    @Override
+    public ECCardData getDataFromAdapterDataset(int position) {
+        return adapter.getDataset().get(position);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return currentPosition;
+    }
+
+    @Override
+    public void setCurrentPosition(int currentPosition) {
+        this.currentPosition = currentPosition;
+    }
+
+    @Override
+    public int getOffscreenPageLimit() {
+        return viewPager.getOffscreenPageLimit();
+    }
+
+    @Override
+    public void setOffscreenPageLimit(int limit) {
+        viewPager.setOffscreenPageLimit(limit);
+    }
+
+    @Override
+    public void addOnPageChangeListener(ViewPager.OnPageChangeListener listener) {
+        onPageChangeListeners.add(listener);
+    }
+
+    @Override
+    public void enablePaging() {
+        viewPager.setUserInputEnabled(true);
+    }
+
+    @Override
+    public void disablePaging() {
+        viewPager.setUserInputEnabled(false);
+    }
+
+    @Override
+    public void updateLayoutDimensions(int cardWidth, int cardHeight) {
+        FrameLayout.LayoutParams pagerViewLayoutParams = (FrameLayout.LayoutParams) this.getLayoutParams();
+        pagerViewLayoutParams.height = cardHeight;
+        pagerViewLayoutParams.width = cardWidth;
+    }
+
+    @Override
+    public void animateWidth(int targetWidth, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
+        sizeAnimator.animateWidth(targetWidth, duration, startDelay, onAnimationEnd);
+    }
+
+    @Override
+    public void animateHeight(int targetHeight, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
+        sizeAnimator.animateHeight(targetHeight, duration, startDelay, onAnimationEnd);
+    }
+
+    @Override
+    public void collapseWithoutAnimation(int cardWidth, int cardHeight) {
+        sizeAnimator.cancel();
+        updateLayoutDimensions(cardWidth, cardHeight);
+        requestLayout();
+        enablePaging();
+    }
+
+    /**
+     * RecyclerView animates cards that moved, appeared and disappeared by their stable ids itself.
+     */
+    @Override
+    public void animateDatasetChange(Runnable change) {
+        change.run();
+    }
+
+    @Override
+    public boolean expand() {
+        return adapter.getActiveCard().expand();
+    }
+
+    @Override
+    public boolean collapse() {
+        return adapter.getActiveCard().collapse();
+    }
+
+    @Override
+    public boolean toggle() {
+        return adapter.getActiveCard().toggle();
+    }
+
+    private static class CardHolder extends RecyclerView.ViewHolder {
+        CardHolder(ECPagerCard card) {
+            super(card);
+        }
+    }
+
+    /**
+     * Shows cards of {@link ECPagerViewAdapter} in RecyclerView of ViewPager2.
+     */
+    private class CardsAdapter extends RecyclerView.Adapter<CardHolder> {
+        private final ECPagerViewAdapter adapter;
+
+        CardsAdapter(ECPagerViewAdapter adapter) {
+            this.adapter = adapter;
+            setHasStableIds(true);
+        }
+
+        @Override
+        public int getItemCount() {
+            return adapter.getCount();
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            return adapter.resolveViewType(position, adapter.getDataset().get(position));
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return CardDatasetDiff.itemIdOf(adapter.getDataset().get(position));
+        }
+
+        @NonNull
+        @Override
+        public CardHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            // pool of each view type holds as many cards as adapter keeps for ECPager
+            getRecyclerView().getRecycledViewPool().setMaxRecycledViews(viewType, adapter.getMaxRecycledCards());
+            ECPagerCard card = adapter.createCard(viewType);
+            card.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+            return new CardHolder(card);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull CardHolder holder, int position) {
+            adapter.bindCard(getPagerView(), (ECPagerCard) holder.itemView, position);
+        }
+
+        @Override
+        public void onViewAttachedToWindow(@NonNull CardHolder holder) {
+            // page is selected before RecyclerView lays out its card
+            ECPagerCard card = (ECPagerCard) holder.itemView;
+            if (card.position == currentPosition)
+                adapter.setPrimaryItem(ECRecyclerPager.this, currentPosition, card);
+        }
+
+        @Override
+        public void onViewRecycled(@NonNull CardHolder holder) {
+            ECPagerCard card = (ECPagerCard) holder.itemView;
+            adapter.onCardRemoved(getPagerView(), card);
+            card.resetToCollapsed();
+        }
+    }
+}
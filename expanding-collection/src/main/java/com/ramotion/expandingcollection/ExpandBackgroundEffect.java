@@ -0,0 +1,172 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.view.View;
+
+/**
+ * Change of background while card expands, driven by expand progress from {@link ECPagerCard}.
+ * In {@link Mode#BLUR} mode {@link BackgroundBlurPyramid} of the current background is built off the main thread
+ * once the page settles, expand animation only blends its levels. Owned by background views,
+ * get it with {@link ECBackgroundSwitcherView#getExpandEffect()} or {@link ECParallaxBackgroundView#getExpandEffect()}.
+ */
+public class ExpandBackgroundEffect {
+
+    public enum Mode {
+        // background doesn't change
+        NONE,
+        // background is blurred stronger as card expands
+        BLUR,
+        // background fades out as card expands
+        FADE
+    }
+
+    private final View host;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    private Mode mode = Mode.NONE;
+    private int levelsCount = 3;
+    private int levelRadius = 4;
+    private float progress;
+
+    private Bitmap source;
+    private BackgroundBlurPyramid pyramid;
+    private BitmapWorkerExecutor.Job pyramidJob;
+    // incremented on reset, pyramids of previous backgrounds are dropped
+    private int pyramidGeneration;
+
+    ExpandBackgroundEffect(View host) {
+        this.host = host;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode != null ? mode : Mode.NONE;
+        if (this.mode != Mode.BLUR)
+            reset();
+        host.invalidate();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param levelsCount number of pyramid levels, every next one is half the size and blurred once more
+     */
+    public void setLevelsCount(int levelsCount) {
+        this.levelsCount = Math.max(1, levelsCount);
+        reset();
+    }
+
+    public int getLevelsCount() {
+        return levelsCount;
+    }
+
+    /**
+     * @param levelRadius blur radius applied to every level, in pixels of that level
+     */
+    public void setLevelRadius(int levelRadius) {
+        this.levelRadius = Math.max(1, levelRadius);
+        reset();
+    }
+
+    public int getLevelRadius() {
+        return levelRadius;
+    }
+
+    /**
+     * @return expand progress of current card, 0 is collapsed and 1 is fully expanded
+     */
+    public float getProgress() {
+        return progress;
+    }
+
+    void setProgress(float progress) {
+        progress = Math.max(0f, Math.min(1f, progress));
+        if (this.progress == progress) return;
+        this.progress = progress;
+        if (mode != Mode.NONE)
+            host.invalidate();
+    }
+
+    /**
+     * Page settled on background, build pyramid for it unless it's already built or being built.
+     */
+    void prepare(final Bitmap background, final BlurEngine blurEngine) {
+        if (mode != Mode.BLUR || background == null || background == source) return;
+        reset();
+        source = background;
+        final int generation = pyramidGeneration;
+        final int levelsCount = this.levelsCount;
+        final int levelRadius = this.levelRadius;
+        final BitmapWorkerExecutor executor = BitmapWorkerExecutor.getInstance();
+        // source is read off the main thread, it must not be evicted into pool and reused meanwhile
+        BitmapPool.getInstance().retain(background);
+        pyramidJob = executor.submit(BitmapWorkerTask.Priority.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                final BackgroundBlurPyramid built;
+                try {
+                    built = background.isRecycled() ? null : BackgroundBlurPyramid.build(background, levelsCount, levelRadius, blurEngine);
+                } finally {
+                    BitmapPool.getInstance().release(background);
+                }
+                executor.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPyramidBuilt(generation, built);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPyramidBuilt(int generation, BackgroundBlurPyramid built) {
+        if (generation != pyramidGeneration) {
+            if (built != null) built.release();
+            return;
+        }
+        pyramidJob = null;
+        pyramid = built;
+        if (progress > 0f)
+            host.invalidate();
+    }
+
+    /**
+     * Background changed, drop pyramid of the previous one.
+     */
+    void reset() {
+        pyramidGeneration++;
+        // job that never started doesn't release its source itself
+        if (pyramidJob != null && pyramidJob.cancel())
+            BitmapPool.getInstance().release(source);
+        pyramidJob = null;
+        if (pyramid != null)
+            pyramid.release();
+        pyramid = null;
+        source = null;
+    }
+
+    /**
+     * @return alpha of background itself in {@link Mode#FADE} mode, 255 otherwise
+     */
+    int getBackgroundAlpha() {
+        return mode == Mode.FADE ? Math.round(255 * (1f - progress)) : 255;
+    }
+
+    /**
+     * @return true if blurred levels fully cover background, so it doesn't have to be drawn
+     */
+    boolean coversBackground() {
+        return mode == Mode.BLUR && pyramid != null && progress * pyramid.getLevelsCount() >= 1f;
+    }
+
+    /**
+     * Draw blurred levels over background laid out in given bounds.
+     */
+    void draw(Canvas canvas, int left, int top, int right, int bottom) {
+        if (mode != Mode.BLUR || pyramid == null || progress <= 0f) return;
+        pyramid.draw(canvas, progress * pyramid.getLevelsCount(), paint, left, top, right, bottom);
+    }
+}
@@ -0,0 +1,15 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+
+/**
+ * {@link BlurEngine} that is able to resize, darken and blur background in a single pipeline,
+ * reading source pixels once. Used by {@link BitmapWorkerTask} instead of separate passes when available.
+ */
+public interface FusedBlurEngine extends BlurEngine {
+
+    /**
+     * Produce new processed bitmap of target size, source bitmap is only read and left untouched.
+     */
+    Bitmap resizeDarkenAndBlur(Bitmap source, int targetWidth, int targetHeight, int radius);
+}
@@ -0,0 +1,94 @@
+package com.ramotion.expandingcollection;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pure Java {@link BlurEngine} based on {@link BoxBlur}, doesn't depend on RenderScript
+ * and spreads the work across all cores. Supports fused processing with {@link PixelPipeline}.
+ */
+public class JavaBlurEngine implements FusedBlurEngine {
+
+    private static ForkJoinPool sharedPool;
+
+    // scratch buffers are reused by every worker thread between backgrounds
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final ForkJoinPool pool;
+
+    public JavaBlurEngine() {
+        this(getSharedPool());
+    }
+
+    public JavaBlurEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sharedPool;
+    }
+
+    @Override
+    public Bitmap blur(Bitmap bitmap, int radius) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        Scratch buffers = scratch.get();
+        int[] pixels = buffers.pixels(width * height);
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        BoxBlur.blur(pixels, buffers.blur(width * height), width, height, radius, pool);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    @Override
+    public Bitmap resizeDarkenAndBlur(final Bitmap source, int targetWidth, int targetHeight, int radius) {
+        final int sourceWidth = source.getWidth();
+        Scratch buffers = scratch.get();
+        int[] pixels = buffers.pixels(targetWidth * targetHeight);
+        int[] rows = buffers.rows(PixelPipeline.rowsBufferSize(sourceWidth, source.getHeight(), targetHeight));
+
+        PixelPipeline.downscaleAndDarken(new PixelPipeline.RowSource() {
+            @Override
+            public void readRows(int[] buffer, int fromRow, int count) {
+                source.getPixels(buffer, 0, sourceWidth, 0, fromRow, sourceWidth, count);
+            }
+        }, sourceWidth, source.getHeight(), pixels, targetWidth, targetHeight, rows);
+        BoxBlur.blur(pixels, buffers.blur(targetWidth * targetHeight), targetWidth, targetHeight, radius, pool);
+
+        Bitmap result = BitmapPool.getInstance().getDirty(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        if (result == null)
+            result = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        result.setPixels(pixels, 0, targetWidth, 0, 0, targetWidth, targetHeight);
+        return result;
+    }
+
+    private static class Scratch {
+        private int[] pixels = new int[0];
+        private int[] blur = new int[0];
+        private int[] rows = new int[0];
+
+        int[] pixels(int size) {
+            if (pixels.length < size) pixels = new int[size];
+            return pixels;
+        }
+
+        int[] blur(int size) {
+            if (blur.length < size) blur = new int[size];
+            return blur;
+        }
+
+        int[] rows(int size) {
+            if (rows.length < size) rows = new int[size];
+            return rows;
+        }
+    }
+}
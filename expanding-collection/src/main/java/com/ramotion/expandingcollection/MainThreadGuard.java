@@ -0,0 +1,74 @@
+package com.ramotion.expandingcollection;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Keeps bitmap decoding and processing of the library off the main thread. In async mode, enabled by default,
+ * views show placeholder or previous image while decode is done by {@link BitmapWorkerExecutor}.
+ * Debug checks report every decode that still happens on the main thread, they are enabled automatically
+ * for debuggable apps.
+ */
+public final class MainThreadGuard {
+    private static final String TAG = "ECMainThreadGuard";
+
+    private static volatile boolean asyncDecoding = true;
+    private static volatile Boolean checksEnabled;
+    private static volatile boolean throwOnViolation;
+
+    private MainThreadGuard() {
+    }
+
+    /**
+     * @param asyncDecoding false to decode resources synchronously, so image is shown in the same frame
+     *                      at the cost of main thread time
+     */
+    public static void setAsyncDecoding(boolean asyncDecoding) {
+        MainThreadGuard.asyncDecoding = asyncDecoding;
+    }
+
+    public static boolean isAsyncDecoding() {
+        return asyncDecoding;
+    }
+
+    /**
+     * Override automatic enabling of checks for debuggable apps.
+     */
+    public static void setChecksEnabled(boolean checksEnabled) {
+        MainThreadGuard.checksEnabled = checksEnabled;
+    }
+
+    public static boolean isChecksEnabled() {
+        return checksEnabled != null && checksEnabled;
+    }
+
+    /**
+     * @param throwOnViolation throw {@link IllegalStateException} instead of logging a warning
+     */
+    public static void setThrowOnViolation(boolean throwOnViolation) {
+        MainThreadGuard.throwOnViolation = throwOnViolation;
+    }
+
+    /**
+     * Enable checks if app is debuggable and they weren't configured explicitly.
+     */
+    static void init(Context context) {
+        if (checksEnabled == null)
+            checksEnabled = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
+    /**
+     * Report operation if it's executed on the main thread.
+     *
+     * @param operation description of operation for report
+     */
+    static void checkNotMainThread(String operation) {
+        if (!isChecksEnabled() || Looper.myLooper() != Looper.getMainLooper()) return;
+        String message = operation + " on main thread";
+        if (throwOnViolation)
+            throw new IllegalStateException(message);
+        Log.w(TAG, message, new Throwable(message));
+    }
+}
@@ -0,0 +1,187 @@
+package com.ramotion.expandingcollection;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Picks offscreen page limit of {@link ECCardPager} at runtime. Window is based on memory class of the device,
+ * grows by one page when binding a card is too slow to be done during a fling, and shrinks under memory pressure.
+ * Smaller limit is applied at once, bigger one waits until pager is idle.
+ * Get it with {@link ECPagerView#getOffscreenPagePolicy()}.
+ */
+public class OffscreenPagePolicy implements ComponentCallbacks2 {
+    // card bind slower than half of a frame is noticeable during a fling
+    private static final long SLOW_BIND_NANOS = 8_000_000L;
+    private static final int BIND_SAMPLES_PER_UPDATE = 8;
+    private static final long PRESSURE_TIMEOUT_MS = 30_000;
+
+    private final Context context;
+    private final int memoryClass;
+    private final boolean lowRamDevice;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    // restores limit lowered by memory pressure, pager may stay idle and never ask for update itself
+    private final Runnable pressureTimeoutUpdate = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    private int minLimit = 1;
+    private int maxLimit = 4;
+
+    private ECCardPager pager;
+    private int offscreenPageLimit = 3;
+    private boolean pagerIdle = true;
+
+    private double averageBindNanos;
+    private int bindSamples;
+    private int trimLevel;
+    private long trimTime;
+
+    private OnLimitChangedListener onLimitChangedListener;
+
+    public OffscreenPagePolicy(Context context) {
+        this.context = context.getApplicationContext();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        this.memoryClass = activityManager != null ? activityManager.getMemoryClass() : 64;
+        this.lowRamDevice = activityManager != null && activityManager.isLowRamDevice();
+    }
+
+    /**
+     * Start managing limit of pager and listening for memory pressure.
+     */
+    void attach(ECCardPager pager) {
+        this.pager = pager;
+        this.offscreenPageLimit = pager.getOffscreenPageLimit();
+        context.registerComponentCallbacks(this);
+        update();
+    }
+
+    void detach() {
+        context.unregisterComponentCallbacks(this);
+        mainThreadHandler.removeCallbacks(pressureTimeoutUpdate);
+        this.pager = null;
+    }
+
+    /**
+     * @param bindNanos time of creating or rebinding card, measured by {@link ECPagerViewAdapter}
+     */
+    void onCardBound(long bindNanos) {
+        // exponential moving average, recent cards matter more
+        averageBindNanos = bindSamples == 0 ? bindNanos : averageBindNanos * 0.8 + bindNanos * 0.2;
+        bindSamples++;
+        if (bindSamples % BIND_SAMPLES_PER_UPDATE == 0)
+            update();
+    }
+
+    void setPagerIdle(boolean pagerIdle) {
+        this.pagerIdle = pagerIdle;
+        if (pagerIdle)
+            update();
+    }
+
+    /**
+     * @return limit for current device, card cost and memory pressure
+     */
+    public int calculateLimit() {
+        int limit;
+        if (lowRamDevice || memoryClass < 128)
+            limit = 1;
+        else if (memoryClass < 192)
+            limit = 2;
+        else
+            limit = 3;
+
+        // with memory to spare, slow cards are bound ahead instead of during a fling
+        if (bindSamples > 0 && averageBindNanos > SLOW_BIND_NANOS && !lowRamDevice && memoryClass >= 192)
+            limit++;
+
+        if (SystemClock.uptimeMillis() - trimTime < PRESSURE_TIMEOUT_MS) {
+            if (trimLevel >= TRIM_MEMORY_RUNNING_LOW)
+                limit = 1;
+            else if (trimLevel >= TRIM_MEMORY_RUNNING_MODERATE)
+                limit--;
+        }
+        return Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    /**
+     * Re-evaluate limit and apply it to pager.
+     */
+    public void update() {
+        if (pager == null) return;
+        int limit = calculateLimit();
+        // growing makes pager bind new cards, never do that while it's scrolling
+        if (limit == offscreenPageLimit || (limit > offscreenPageLimit && !pagerIdle)) return;
+        offscreenPageLimit = limit;
+        pager.setOffscreenPageLimit(limit);
+        if (onLimitChangedListener != null)
+            onLimitChangedListener.onLimitChanged(limit);
+    }
+
+    /**
+     * @return limit currently applied to pager
+     */
+    public int getOffscreenPageLimit() {
+        return offscreenPageLimit;
+    }
+
+    public void setLimitRange(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        update();
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getMemoryClass() {
+        return memoryClass;
+    }
+
+    /**
+     * @return average time of creating or rebinding card in nanoseconds, 0 until the first card is bound
+     */
+    public long getAverageBindNanos() {
+        return Math.round(averageBindNanos);
+    }
+
+    public void setOnLimitChangedListener(OnLimitChangedListener onLimitChangedListener) {
+        this.onLimitChangedListener = onLimitChangedListener;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // ui hidden and background levels are handled by caches, pager isn't visible then
+        if (level >= TRIM_MEMORY_UI_HIDDEN) return;
+        trimLevel = level;
+        trimTime = SystemClock.uptimeMillis();
+        mainThreadHandler.removeCallbacks(pressureTimeoutUpdate);
+        mainThreadHandler.postAtTime(pressureTimeoutUpdate, trimTime + PRESSURE_TIMEOUT_MS);
+        update();
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_RUNNING_CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    public interface OnLimitChangedListener {
+        void onLimitChanged(int offscreenPageLimit);
+    }
+}
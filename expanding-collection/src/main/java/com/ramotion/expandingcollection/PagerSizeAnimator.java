@@ -0,0 +1,79 @@
+package com.ramotion.expandingcollection;
+
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.AccelerateInterpolator;
+import android.view.animation.DecelerateInterpolator;
+
+/**
+ * Size animations of card pager on expand and collapse, shared by both pager engines.
+ * Animations are kept to stop them if expanded card is removed.
+ */
+final class PagerSizeAnimator {
+    private final View pager;
+    private ValueAnimator widthAnimation;
+    private ValueAnimator heightAnimation;
+
+    PagerSizeAnimator(View pager) {
+        this.pager = pager;
+    }
+
+    void animateWidth(int targetWidth, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
+        ValueAnimator pagerWidthAnimation = new ValueAnimator();
+        pagerWidthAnimation.setInterpolator(new AccelerateInterpolator());
+        pagerWidthAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                ViewGroup.LayoutParams pagerLayoutParams = pager.getLayoutParams();
+                pagerLayoutParams.width = (int) animation.getAnimatedValue();
+                pager.setLayoutParams(pagerLayoutParams);
+            }
+        });
+
+        pagerWidthAnimation.setIntValues(pager.getWidth(), targetWidth);
+
+        pagerWidthAnimation.setStartDelay(startDelay);
+        pagerWidthAnimation.setDuration(duration);
+        if (onAnimationEnd != null)
+            pagerWidthAnimation.addListener(onAnimationEnd);
+        pagerWidthAnimation.start();
+        widthAnimation = pagerWidthAnimation;
+    }
+
+    void animateHeight(int targetHeight, int duration, int startDelay, AnimatorListenerAdapter onAnimationEnd) {
+        ValueAnimator pagerHeightAnimation = new ValueAnimator();
+        pagerHeightAnimation.setInterpolator(new DecelerateInterpolator());
+        pagerHeightAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                ViewGroup.LayoutParams pagerLayoutParams = pager.getLayoutParams();
+                pagerLayoutParams.height = (int) animation.getAnimatedValue();
+                pager.setLayoutParams(pagerLayoutParams);
+            }
+        });
+
+        pagerHeightAnimation.setIntValues(pager.getHeight(), targetHeight);
+
+        pagerHeightAnimation.setDuration(duration);
+        pagerHeightAnimation.setStartDelay(startDelay);
+        if (onAnimationEnd != null)
+            pagerHeightAnimation.addListener(onAnimationEnd);
+
+        pagerHeightAnimation.start();
+        heightAnimation = pagerHeightAnimation;
+    }
+
+    /**
+     * Stop animations, listeners of stopped animations are notified, so card state is updated by them.
+     */
+    void cancel() {
+        if (widthAnimation != null)
+            widthAnimation.cancel();
+        if (heightAnimation != null)
+            heightAnimation.cancel();
+        widthAnimation = null;
+        heightAnimation = null;
+    }
+}
@@ -0,0 +1,79 @@
+package com.ramotion.expandingcollection;
+
+import java.util.Arrays;
+
+/**
+ * Fused pixel stage of background processing: box-filter source down to target size and darken it in one pass,
+ * result goes straight into {@link BoxBlur}. Works on ARGB int buffers and doesn't depend on android classes.
+ */
+public final class PixelPipeline {
+    // same multiplier as LightingColorFilter used by BitmapWorkerTask#darkenBitMap
+    static final int DARKEN_MULTIPLIER = 0xCC;
+
+    private PixelPipeline() {
+    }
+
+    /**
+     * Provides source pixels row by row, so the whole source never has to be copied at once.
+     */
+    public interface RowSource {
+        /**
+         * Copy rows [fromRow, fromRow + count) into buffer, each row is source width pixels long.
+         */
+        void readRows(int[] buffer, int fromRow, int count);
+    }
+
+    /**
+     * @return size of rows buffer required by {@link #downscaleAndDarken}
+     */
+    public static int rowsBufferSize(int sourceWidth, int sourceHeight, int targetHeight) {
+        return sourceWidth * ((sourceHeight + targetHeight - 1) / targetHeight + 1);
+    }
+
+    /**
+     * Average every target pixel over its block of source pixels and apply darken multiplier.
+     *
+     * @param rows buffer of at least {@link #rowsBufferSize} length
+     * @param dst  target pixels, at least targetWidth * targetHeight length
+     */
+    public static void downscaleAndDarken(RowSource source, int sourceWidth, int sourceHeight,
+                                          int[] dst, int targetWidth, int targetHeight, int[] rows) {
+        long[] sums = new long[targetWidth * 4];
+        for (int ty = 0; ty < targetHeight; ty++) {
+            int fromRow = (int) ((long) ty * sourceHeight / targetHeight);
+            int toRow = Math.max(fromRow + 1, (int) ((long) (ty + 1) * sourceHeight / targetHeight));
+            int rowsCount = toRow - fromRow;
+            source.readRows(rows, fromRow, rowsCount);
+
+            Arrays.fill(sums, 0);
+            for (int r = 0; r < rowsCount; r++) {
+                int rowOffset = r * sourceWidth;
+                for (int tx = 0; tx < targetWidth; tx++) {
+                    int fromColumn = (int) ((long) tx * sourceWidth / targetWidth);
+                    int toColumn = Math.max(fromColumn + 1, (int) ((long) (tx + 1) * sourceWidth / targetWidth));
+                    int sum = tx * 4;
+                    for (int x = fromColumn; x < toColumn; x++) {
+                        int p = rows[rowOffset + x];
+                        sums[sum] += p >>> 24;
+                        sums[sum + 1] += (p >> 16) & 0xFF;
+                        sums[sum + 2] += (p >> 8) & 0xFF;
+                        sums[sum + 3] += p & 0xFF;
+                    }
+                }
+            }
+
+            int targetRow = ty * targetWidth;
+            for (int tx = 0; tx < targetWidth; tx++) {
+                int fromColumn = (int) ((long) tx * sourceWidth / targetWidth);
+                int toColumn = Math.max(fromColumn + 1, (int) ((long) (tx + 1) * sourceWidth / targetWidth));
+                long count = (long) (toColumn - fromColumn) * rowsCount;
+                int sum = tx * 4;
+                int a = (int) (sums[sum] / count);
+                int r = (int) (sums[sum + 1] / count) * DARKEN_MULTIPLIER / 0xFF;
+                int g = (int) (sums[sum + 2] / count) * DARKEN_MULTIPLIER / 0xFF;
+                int b = (int) (sums[sum + 3] / count) * DARKEN_MULTIPLIER / 0xFF;
+                dst[targetRow + tx] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
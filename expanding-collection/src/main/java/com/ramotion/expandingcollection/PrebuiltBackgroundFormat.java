@@ -0,0 +1,25 @@
+package com.ramotion.expandingcollection;
+
+/**
+ * Format of backgrounds processed at build time, shared by {@link PrebuiltBackgrounds} and the build tool.
+ * File is a header of six big-endian ints - magic, width, height, blur engine, downScale and blurRadius -
+ * followed by ARGB pixels as big-endian ints, row by row. Doesn't depend on android classes.
+ */
+public final class PrebuiltBackgroundFormat {
+    public static final String ASSETS_DIRECTORY = "ec-preblur";
+    public static final int MAGIC = 0x45435042;
+    public static final int HEADER_SIZE = 6 * 4;
+    // output of JavaBlurEngine, the only engine build tool implements. Radius means different blur in other engines
+    public static final int ENGINE_JAVA = 1;
+
+    private PrebuiltBackgroundFormat() {
+    }
+
+    /**
+     * @param resourceName entry name of drawable resource, e.g. "card_background"
+     * @param engine       blur engine that produced pixels, e.g. {@link #ENGINE_JAVA}
+     */
+    public static String fileName(String resourceName, int engine, int downScale, int blurRadius) {
+        return resourceName + "_e" + engine + "_" + downScale + "_" + blurRadius + ".px";
+    }
+}
@@ -0,0 +1,87 @@
+package com.ramotion.expandingcollection;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Backgrounds of drawable resources processed at build time by preblur.gradle and bundled into assets.
+ * Loading one is a plain copy of pixels, no decode, downscale or blur happens on device.
+ * Build tool produces output of {@link JavaBlurEngine}, so only backgrounds of that engine are looked up here.
+ */
+public class PrebuiltBackgrounds {
+    private static final String TAG = "PrebuiltBackgrounds";
+
+    private static Set<String> availableFiles;
+
+    /**
+     * @return prebuilt background for resource key or null if app doesn't bundle one
+     */
+    public static Bitmap load(Context context, BackgroundKey key) {
+        if (key.getResId() == null) return null;
+        int engine = getEngine(key);
+        if (engine < 0) return null;
+        Resources resources = context.getResources();
+        String fileName;
+        try {
+            fileName = PrebuiltBackgroundFormat.fileName(resources.getResourceEntryName(key.getResId()), engine,
+                    key.getDownScale(), key.getBlurRadius());
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        AssetManager assets = context.getAssets();
+        if (!getAvailableFiles(assets).contains(fileName)) return null;
+
+        MainThreadGuard.checkNotMainThread("Prebuilt background read");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(assets.open(PrebuiltBackgroundFormat.ASSETS_DIRECTORY + "/" + fileName)))) {
+            if (in.readInt() != PrebuiltBackgroundFormat.MAGIC) return null;
+            int width = in.readInt();
+            int height = in.readInt();
+            if (in.readInt() != engine || in.readInt() != key.getDownScale() || in.readInt() != key.getBlurRadius()
+                    || width <= 0 || height <= 0) return null;
+            int[] pixels = new int[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = in.readInt();
+            }
+            Bitmap bitmap = BitmapPool.getInstance().getDirty(width, height, Bitmap.Config.ARGB_8888);
+            if (bitmap == null)
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+            return BitmapWorkerTask.convert(bitmap, key.getConfig());
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read prebuilt background " + fileName, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return engine of {@link PrebuiltBackgroundFormat} matching blur engine of key, or -1 if there is none
+     */
+    private static int getEngine(BackgroundKey key) {
+        return JavaBlurEngine.class.getName().equals(key.getBlurEngineName()) ? PrebuiltBackgroundFormat.ENGINE_JAVA : -1;
+    }
+
+    private static synchronized Set<String> getAvailableFiles(AssetManager assets) {
+        if (availableFiles == null) {
+            Set<String> files = new HashSet<>();
+            try {
+                String[] list = assets.list(PrebuiltBackgroundFormat.ASSETS_DIRECTORY);
+                if (list != null)
+                    Collections.addAll(files, list);
+            } catch (IOException e) {
+                Log.w(TAG, "Can't list prebuilt backgrounds", e);
+            }
+            availableFiles = files;
+        }
+        return availableFiles;
+    }
+}
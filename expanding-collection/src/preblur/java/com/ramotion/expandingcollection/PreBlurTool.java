@@ -0,0 +1,75 @@
+package com.ramotion.expandingcollection;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Build time counterpart of {@link JavaBlurEngine}. Runs the same {@link PixelPipeline} and {@link BoxBlur}
+ * over drawables on the build machine and writes results in {@link PrebuiltBackgroundFormat}.
+ * Used by preblur.gradle, arguments: output directory, downScale, blurRadius, then pairs of resource name and file.
+ */
+public final class PreBlurTool {
+
+    private PreBlurTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || (args.length - 3) % 2 != 0)
+            throw new IllegalArgumentException("Usage: PreBlurTool <outputDir> <downScale> <blurRadius> [<name> <file>]...");
+        File outputDir = new File(args[0]);
+        int downScale = Math.max(1, Integer.parseInt(args[1]));
+        int blurRadius = Integer.parseInt(args[2]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IOException("Can't create directory " + outputDir);
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (int i = 3; i < args.length; i += 2) {
+                File output = new File(outputDir, PrebuiltBackgroundFormat.fileName(args[i], PrebuiltBackgroundFormat.ENGINE_JAVA, downScale, blurRadius));
+                process(new File(args[i + 1]), output, downScale, blurRadius, pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void process(File input, File output, int downScale, int blurRadius, ForkJoinPool pool) throws IOException {
+        final BufferedImage image = ImageIO.read(input);
+        if (image == null)
+            throw new IOException("Unsupported image format " + input);
+        final int sourceWidth = image.getWidth();
+        int sourceHeight = image.getHeight();
+        // same target size as BitmapWorkerTask#decodeAndProcessResource
+        int targetWidth = Math.max(1, sourceWidth / downScale);
+        int targetHeight = Math.max(1, sourceHeight / downScale);
+
+        int[] pixels = new int[targetWidth * targetHeight];
+        int[] rows = new int[PixelPipeline.rowsBufferSize(sourceWidth, sourceHeight, targetHeight)];
+        PixelPipeline.downscaleAndDarken(new PixelPipeline.RowSource() {
+            @Override
+            public void readRows(int[] buffer, int fromRow, int count) {
+                image.getRGB(0, fromRow, sourceWidth, count, buffer, 0, sourceWidth);
+            }
+        }, sourceWidth, sourceHeight, pixels, targetWidth, targetHeight, rows);
+        BoxBlur.blur(pixels, new int[pixels.length], targetWidth, targetHeight, blurRadius, pool);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(PrebuiltBackgroundFormat.MAGIC);
+            out.writeInt(targetWidth);
+            out.writeInt(targetHeight);
+            out.writeInt(PrebuiltBackgroundFormat.ENGINE_JAVA);
+            out.writeInt(downScale);
+            out.writeInt(blurRadius);
+            for (int pixel : pixels) {
+                out.writeInt(pixel);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ramotion.com.expandingcollection;
+
+import com.ramotion.expandingcollection.BlurHash;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlurHashTest {
+
+    @Test
+    public void encode_hasLengthOfComponents() throws Exception {
+        int[] pixels = gradient(32, 24);
+
+        assertEquals(4 + 2 * 4 * 3, BlurHash.encode(pixels, 32, 24, 4, 3).length());
+        assertEquals(4 + 2, BlurHash.encode(pixels, 32, 24, 1, 1).length());
+        assertEquals(4 + 2 * 9 * 9, BlurHash.encode(pixels, 32, 24, 9, 9).length());
+    }
+
+    @Test
+    public void uniformImage_roundTrip() throws Exception {
+        int width = 128, height = 96;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xFF3366CC);
+
+        // average color only, it's kept exactly
+        assertUniform(BlurHash.decode(BlurHash.encode(pixels, width, height, 1, 1), 8, 6, 1f), 0);
+
+        String hash = BlurHash.encode(pixels, width, height, 4, 3);
+        assertTrue(BlurHash.isValid(hash));
+        // components are sampled at pixel edges and quantised coarsely, so the flat image gets slight shading
+        assertUniform(BlurHash.decode(hash, 8, 6, 1f), 8);
+    }
+
+    @Test
+    public void gradient_roundTrip() throws Exception {
+        int width = 32, height = 24;
+        String hash = BlurHash.encode(gradient(width, height), width, height, 4, 3);
+        assertTrue(BlurHash.isValid(hash));
+
+        int[] decoded = BlurHash.decode(hash, width, height, 1f);
+        int row = height / 2 * width;
+        // dark on the left, bright on the right, the same as source
+        assertTrue((decoded[row] & 0xFF) < 0x40);
+        assertTrue((decoded[row + width - 1] & 0xFF) > 0xC0);
+        for (int x = 1; x < width; x++) {
+            assertTrue((decoded[row + x] & 0xFF) + 8 >= (decoded[row + x - 1] & 0xFF));
+        }
+    }
+
+    @Test
+    public void referenceHash_isDecoded() throws Exception {
+        String hash = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+        assertTrue(BlurHash.isValid(hash));
+        assertEquals(32 * 32, BlurHash.decode(hash, 32, 32, 1f).length);
+    }
+
+    @Test
+    public void malformedHash_isInvalid() throws Exception {
+        String hash = BlurHash.encode(gradient(16, 16), 16, 16, 4, 3);
+
+        assertFalse(BlurHash.isValid(null));
+        assertFalse(BlurHash.isValid("LEHV6"));
+        assertFalse(BlurHash.isValid(hash.substring(0, hash.length() - 2)));
+        assertFalse(BlurHash.isValid(hash + "00"));
+        assertFalse(BlurHash.isValid(hash.substring(0, 10) + "\"" + hash.substring(11)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedHash_isRejectedByDecode() throws Exception {
+        String hash = BlurHash.encode(gradient(16, 16), 16, 16, 4, 3);
+        BlurHash.decode(hash.substring(0, hash.length() - 2), 8, 8, 1f);
+    }
+
+    private static void assertUniform(int[] decoded, int delta) {
+        assertEquals(8 * 6, decoded.length);
+        for (int pixel : decoded) {
+            assertEquals(0xFF, pixel >>> 24);
+            assertEquals(0x33, (pixel >> 16) & 0xFF, delta);
+            assertEquals(0x66, (pixel >> 8) & 0xFF, delta);
+            assertEquals(0xCC, pixel & 0xFF, delta);
+        }
+    }
+
+    /**
+     * Horizontal gradient from black to white.
+     */
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = x * 255 / (width - 1);
+                pixels[y * width + x] = 0xFF000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,90 @@
+package ramotion.com.expandingcollection;
+
+import com.ramotion.expandingcollection.BoxBlur;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pure Java blur of {@link com.ramotion.expandingcollection.JavaBlurEngine}, runs on the host without android classes.
+ */
+public class BoxBlurTest {
+    private static final int BLACK = 0xFF000000;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    @Test
+    public void zeroRadius_isIdentity() throws Exception {
+        int width = 31, height = 17;
+        int[] pixels = randomPixels(width, height, 1);
+        int[] expected = pixels.clone();
+
+        BoxBlur.blur(pixels, new int[pixels.length], width, height, 0, new ForkJoinPool(2));
+
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void uniformImage_staysUniform() throws Exception {
+        int width = 37, height = 23;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xFF336699);
+
+        BoxBlur.blur(pixels, new int[pixels.length], width, height, 10, new ForkJoinPool(4));
+
+        for (int pixel : pixels) {
+            assertEquals(0xFF336699, pixel);
+        }
+    }
+
+    @Test
+    public void edges_areClampedToBorderPixels() throws Exception {
+        // left half black, right half white, far wider than blur reaches
+        int width = 64, height = 20;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = x < width / 2 ? BLACK : WHITE;
+            }
+        }
+
+        BoxBlur.blur(pixels, new int[pixels.length], width, height, 4, new ForkJoinPool(2));
+
+        for (int y = 0; y < height; y++) {
+            // samples outside of image repeat border pixels, so borders neither fade nor lose alpha
+            assertEquals(BLACK, pixels[y * width]);
+            assertEquals(WHITE, pixels[y * width + width - 1]);
+            for (int x = 0; x < width; x++) {
+                assertEquals(0xFF, pixels[y * width + x] >>> 24);
+            }
+        }
+        // step itself is blurred
+        int middle = pixels[width / 2];
+        assertTrue(middle != BLACK && middle != WHITE);
+    }
+
+    @Test
+    public void parallelBlur_matchesSingleThreaded() throws Exception {
+        int width = 200, height = 150;
+        int[] parallel = randomPixels(width, height, 7);
+        int[] single = parallel.clone();
+
+        BoxBlur.blur(parallel, new int[parallel.length], width, height, 8, new ForkJoinPool(4));
+        BoxBlur.blur(single, new int[single.length], width, height, 8, new ForkJoinPool(1));
+
+        assertArrayEquals(single, parallel);
+    }
+
+    static int[] randomPixels(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,57 @@
+package ramotion.com.expandingcollection;
+
+import com.ramotion.expandingcollection.PixelPipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fused downscale and darken stage, expected pixels are computed by hand.
+ */
+public class PixelPipelineTest {
+
+    @Test
+    public void evenBlocks_areAveragedAndDarkened() throws Exception {
+        // two 2x2 blocks
+        int[] source = {
+                0xFF102030, 0xFF304050, 0x80FFFFFF, 0x80FFFFFF,
+                0xFF506070, 0xFF708090, 0x80FFFFFF, 0x80FFFFFF,
+        };
+
+        // first block averages to 0xFF405060, darkened channels are 0x40 * 0xCC / 0xFF = 0x33,
+        // 0x50 * 0xCC / 0xFF = 0x40 and 0x60 * 0xCC / 0xFF = 0x4C, alpha is averaged but not darkened
+        assertArrayEquals(new int[]{0xFF33404C, 0x80CCCCCC}, fused(source, 4, 2, 2, 1));
+    }
+
+    @Test
+    public void unevenBlocks_coverWholeSource() throws Exception {
+        // 3 columns into 2: first target pixel takes column 0, second averages columns 1 and 2
+        int[] source = {
+                0xFFFF0000, 0xFF000000, 0xFF0000FF,
+                0xFFFF0000, 0x00000000, 0x000000FF,
+        };
+
+        // second pixel: alpha (2 * 0xFF) / 4 = 0x7F, blue (2 * 0xFF) / 4 = 0x7F, darkened 0x7F * 0xCC / 0xFF = 0x65
+        assertArrayEquals(new int[]{0xFFCC0000, 0x7F000065}, fused(source, 3, 2, 2, 1));
+    }
+
+    @Test
+    public void sameSize_onlyDarkens() throws Exception {
+        int[] source = {0xFFFFFFFF, 0xFF000000, 0x40804020, 0x00FF00FF};
+
+        assertArrayEquals(new int[]{0xFFCCCCCC, 0xFF000000, 0x40663319, 0x00CC00CC}, fused(source, 2, 2, 2, 2));
+    }
+
+    private static int[] fused(final int[] source, final int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        int[] pixels = new int[targetWidth * targetHeight];
+        int[] rows = new int[PixelPipeline.rowsBufferSize(sourceWidth, sourceHeight, targetHeight)];
+        PixelPipeline.downscaleAndDarken(new PixelPipeline.RowSource() {
+            @Override
+            public void readRows(int[] buffer, int fromRow, int count) {
+                System.arraycopy(source, fromRow * sourceWidth, buffer, 0, count * sourceWidth);
+            }
+        }, sourceWidth, sourceHeight, pixels, targetWidth, targetHeight, rows);
+        return pixels;
+    }
+}